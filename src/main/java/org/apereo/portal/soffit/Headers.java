@@ -51,6 +51,49 @@ public enum Headers {
      */
     CACHE_CONTROL("Cache-Control"),
 
+    /**
+     * Conveys the time (in seconds) since a response was generated, e.g.
+     * when it is served from a cache;  recipients subtract it from the
+     * freshness lifetime.
+     *
+     * @since 5.0
+     */
+    AGE("Age"),
+
+    /**
+     * Provides the current value of the entity tag for the requested variant;
+     * used in validation caching.
+     *
+     * @since 5.0
+     */
+    ETAG("ETag"),
+
+    /**
+     * Indicates the date and time at which the origin server believes the
+     * variant was last modified;  used in validation caching.
+     *
+     * @since 5.0
+     */
+    LAST_MODIFIED("Last-Modified"),
+
+    /**
+     * Makes the request conditional on the entity tag(s) of the variant the
+     * client already has;  the server responds with 304 (Not Modified) if one
+     * of them is current.
+     *
+     * @since 5.0
+     */
+    IF_NONE_MATCH("If-None-Match"),
+
+    /**
+     * Makes the request conditional on the variant having been modified since
+     * the specified date;  the server responds with 304 (Not Modified) if it
+     * has not.
+     *
+     * @since 5.0
+     */
+    IF_MODIFIED_SINCE("If-Modified-Since"),
+
     /*
      * Custom headers
      */
@@ -77,7 +120,28 @@ public enum Headers {
      *
      * @since 5.0
      */
-    DEFINITION("X-Soffit-Definition");
+    DEFINITION("X-Soffit-Definition"),
+
+    /**
+     * HTTP header sent by the {@link SoffitConnectorController} indicating
+     * how long (in milliseconds from when it sent the request) it will wait
+     * for the response.  The Soffit may abandon requests that cannot be
+     * completed in time.  The value is relative so that the clocks of the
+     * portal and the Soffit needn't agree.
+     *
+     * @since 5.0
+     */
+    TIMEOUT("X-Soffit-Timeout"),
+
+    /**
+     * HTTP header sent by the Soffit (in 503 responses) indicating it
+     * abandoned the request because the time allowed by {@link #TIMEOUT} had
+     * run out;  the {@link SoffitConnectorController} doesn't count these
+     * responses against the Soffit.
+     *
+     * @since 5.0
+     */
+    ABANDONED("X-Soffit-Abandoned");
 
     /**
      * Prepended to the Authorization HTTP header to indicate that the value
@@ -20,10 +20,13 @@
 package org.apereo.portal.soffit.connector;
 
 import java.util.Date;
+import java.util.concurrent.Callable;
 
 import javax.portlet.PortletSession;
 import javax.portlet.RenderRequest;
 
+import org.apache.http.Header;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
@@ -35,6 +38,17 @@ public abstract class AbstractHeaderProvider implements IHeaderProvider {
 
     protected final Logger logger = LoggerFactory.getLogger(getClass());
 
+    /**
+     * Name of the header this provider produces, if known in advance;  allows
+     * the {@link SoffitConnectorController} to skip providers whose headers
+     * the soffit doesn't need without invoking them.  The default
+     * implementation returns <code>null</code> (the name is learned from the
+     * first header produced).
+     */
+    public String getHeaderName() {
+        return null;
+    }
+
     protected final String getUsername(RenderRequest renderRequest) {
         final String rslt = renderRequest.getRemoteUser() != null
                 ? renderRequest.getRemoteUser()
@@ -54,4 +68,19 @@ public abstract class AbstractHeaderProvider implements IHeaderProvider {
         return rslt;
     }
 
+    /**
+     * Invokes the task on the current thread;  allows an
+     * {@link IAsyncHeaderProvider} to implement <code>createHeader</code>
+     * trivially.
+     */
+    protected final Header call(Callable<Header> task) {
+        try {
+            return task.call();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to create header", e);
+        }
+    }
+
 }
@@ -0,0 +1,291 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apereo.portal.soffit.connector;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+/**
+ * The response directives of one or more <code>Cache-Control</code> header
+ * values (https://tools.ietf.org/html/rfc7234#section-5.2.2), plus the
+ * <code>stale-while-revalidate</code> and <code>stale-if-error</code>
+ * extensions (https://tools.ietf.org/html/rfc5861).<p>
+ *
+ * The parser scans the value in place (without splitting it or using regular
+ * expressions).  Directive names are case-insensitive;  unrecognized
+ * directives are ignored.  A delta-seconds argument that is missing or
+ * invalid is treated as 0 (i.e. the response is stale), and values too large
+ * to represent are capped at <code>Integer.MAX_VALUE</code> seconds.
+ * The qualified forms of <code>private</code> and <code>no-cache</code> (with
+ * field names) are treated like the unqualified forms.
+ *
+ * @author agent
+ */
+public final class CacheControl {
+
+    /**
+     * Value of delta-seconds directives that are not present.
+     */
+    public static final int ABSENT = -1;
+
+    private boolean publicScope;
+    private boolean privateScope;
+    private boolean noCache;
+    private boolean noStore;
+    private boolean noTransform;
+    private boolean mustRevalidate;
+    private boolean proxyRevalidate;
+    private int maxAge = ABSENT;
+    private int sharedMaxAge = ABSENT;
+    private int staleWhileRevalidate = ABSENT;
+    private int staleIfError = ABSENT;
+
+    private CacheControl() {}
+
+    /**
+     * Parses the specified header values, which may be <code>null</code>.
+     * When directives are repeated, the last one wins.
+     */
+    public static CacheControl parse(String... values) {
+        final CacheControl rslt = new CacheControl();
+        if (values != null) {
+            for (String value : values) {
+                if (value != null) {
+                    rslt.parseValue(value);
+                }
+            }
+        }
+        return rslt;
+    }
+
+    /**
+     * Indicates the response may be stored by any cache (and therefore shared
+     * among all users).
+     */
+    public boolean isPublic() {
+        return publicScope;
+    }
+
+    /**
+     * Indicates the response is intended for a single user and must not be
+     * stored by a shared cache.
+     */
+    public boolean isPrivate() {
+        return privateScope;
+    }
+
+    /**
+     * Indicates the response may be stored, but must be revalidated before
+     * every use.
+     */
+    public boolean isNoCache() {
+        return noCache;
+    }
+
+    public boolean isNoStore() {
+        return noStore;
+    }
+
+    public boolean isNoTransform() {
+        return noTransform;
+    }
+
+    /**
+     * Indicates the response must not be used once it is stale without first
+     * revalidating it.
+     */
+    public boolean isMustRevalidate() {
+        return mustRevalidate;
+    }
+
+    /**
+     * Like <code>must-revalidate</code>, but for shared caches only.
+     */
+    public boolean isProxyRevalidate() {
+        return proxyRevalidate;
+    }
+
+    /**
+     * @return The value of <code>max-age</code> in seconds, or {@link #ABSENT}
+     */
+    public int getMaxAge() {
+        return maxAge;
+    }
+
+    /**
+     * @return The value of <code>s-maxage</code> in seconds, or {@link #ABSENT}
+     */
+    public int getSharedMaxAge() {
+        return sharedMaxAge;
+    }
+
+    /**
+     * @return The value of <code>stale-while-revalidate</code> in seconds, or {@link #ABSENT}
+     */
+    public int getStaleWhileRevalidate() {
+        return staleWhileRevalidate;
+    }
+
+    /**
+     * @return The value of <code>stale-if-error</code> in seconds, or {@link #ABSENT}
+     */
+    public int getStaleIfError() {
+        return staleIfError;
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this).
+            append("public", publicScope).
+            append("private", privateScope).
+            append("noCache", noCache).
+            append("noStore", noStore).
+            append("noTransform", noTransform).
+            append("mustRevalidate", mustRevalidate).
+            append("proxyRevalidate", proxyRevalidate).
+            append("maxAge", maxAge).
+            append("sharedMaxAge", sharedMaxAge).
+            append("staleWhileRevalidate", staleWhileRevalidate).
+            append("staleIfError", staleIfError).
+            toString();
+    }
+
+    /*
+     * Implementation
+     */
+
+    private void parseValue(final String value) {
+
+        final int length = value.length();
+        int i = 0;
+        while (i < length) {
+
+            // Skip leading whitespace and empty list elements
+            char c = value.charAt(i);
+            if (c == ',' || isWhitespace(c)) {
+                i++;
+                continue;
+            }
+
+            // Directive name
+            final int nameStart = i;
+            while (i < length && (c = value.charAt(i)) != '=' && c != ',' && !isWhitespace(c)) {
+                i++;
+            }
+            final int nameEnd = i;
+
+            // Argument (optional)
+            int argStart = -1;
+            int argEnd = -1;
+            final int equals = skipWhitespace(value, i);
+            if (equals < length && value.charAt(equals) == '=') {
+                i = skipWhitespace(value, equals + 1);
+                if (i < length && value.charAt(i) == '"') {
+                    // Quoted string
+                    argStart = ++i;
+                    while (i < length && value.charAt(i) != '"') {
+                        i += value.charAt(i) == '\\' ? 2 : 1;
+                    }
+                    argEnd = Math.min(i, length);
+                    // Closing quote
+                    i++;
+                } else {
+                    // Token
+                    argStart = i;
+                    while (i < length && (c = value.charAt(i)) != ',' && !isWhitespace(c)) {
+                        i++;
+                    }
+                    argEnd = i;
+                }
+            }
+
+            // Discard anything else up to the next list element;  whitespace
+            // outside a quoted string also ends a directive (e.g. "public max-age=300")
+            while (i < length && (c = value.charAt(i)) != ',' && !isWhitespace(c)) {
+                i++;
+            }
+
+            applyDirective(value, nameStart, nameEnd, argStart, argEnd);
+
+        }
+
+    }
+
+    private void applyDirective(String value, int nameStart, int nameEnd, int argStart, int argEnd) {
+        if (nameIs(value, nameStart, nameEnd, "max-age")) {
+            maxAge = parseDeltaSeconds(value, argStart, argEnd);
+        } else if (nameIs(value, nameStart, nameEnd, "s-maxage")) {
+            sharedMaxAge = parseDeltaSeconds(value, argStart, argEnd);
+        } else if (nameIs(value, nameStart, nameEnd, "public")) {
+            publicScope = true;
+        } else if (nameIs(value, nameStart, nameEnd, "private")) {
+            privateScope = true;
+        } else if (nameIs(value, nameStart, nameEnd, "no-cache")) {
+            noCache = true;
+        } else if (nameIs(value, nameStart, nameEnd, "no-store")) {
+            noStore = true;
+        } else if (nameIs(value, nameStart, nameEnd, "must-revalidate")) {
+            mustRevalidate = true;
+        } else if (nameIs(value, nameStart, nameEnd, "proxy-revalidate")) {
+            proxyRevalidate = true;
+        } else if (nameIs(value, nameStart, nameEnd, "no-transform")) {
+            noTransform = true;
+        } else if (nameIs(value, nameStart, nameEnd, "stale-while-revalidate")) {
+            staleWhileRevalidate = parseDeltaSeconds(value, argStart, argEnd);
+        } else if (nameIs(value, nameStart, nameEnd, "stale-if-error")) {
+            staleIfError = parseDeltaSeconds(value, argStart, argEnd);
+        }
+    }
+
+    private static boolean nameIs(String value, int nameStart, int nameEnd, String directive) {
+        return nameEnd - nameStart == directive.length()
+                && value.regionMatches(true, nameStart, directive, 0, directive.length());
+    }
+
+    private static int parseDeltaSeconds(String value, int argStart, int argEnd) {
+        if (argStart < 0 || argStart == argEnd) {
+            return 0;
+        }
+        long rslt = 0L;
+        for (int i = argStart; i < argEnd; i++) {
+            final char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return 0;
+            }
+            rslt = rslt * 10L + (c - '0');
+            if (rslt > Integer.MAX_VALUE) {
+                return Integer.MAX_VALUE;
+            }
+        }
+        return (int) rslt;
+    }
+
+    private static int skipWhitespace(String value, int index) {
+        int rslt = index;
+        while (rslt < value.length() && isWhitespace(value.charAt(rslt))) {
+            rslt++;
+        }
+        return rslt;
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t';
+    }
+
+}
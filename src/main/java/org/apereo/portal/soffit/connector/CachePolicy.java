@@ -0,0 +1,242 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apereo.portal.soffit.connector;
+
+import java.util.Date;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.utils.DateUtils;
+import org.apereo.portal.soffit.Headers;
+
+/**
+ * Applies the rules of RFC 7234 (https://tools.ietf.org/html/rfc7234) to a
+ * response from a remote soffit to determine whether, in what scope, and for
+ * how long the Soffit Connector may cache it.<p>
+ *
+ * The connector's public-scope cache (shared by all users) behaves as a
+ * shared cache, and its private-scope cache (per user) behaves as a private
+ * cache.  Requests to soffits carry an <code>Authorization</code> header, so
+ * (per section 3.2) a response may be shared only if it contains
+ * <code>public</code>, <code>s-maxage</code>, or <code>must-revalidate</code>.
+ * Heuristic freshness is not used;  responses without explicit freshness may
+ * still be stored if they carry validators.
+ *
+ * @author agent
+ */
+public final class CachePolicy {
+
+    private static final String PRAGMA_HEADER = "Pragma";
+    private static final String EXPIRES_HEADER = "Expires";
+    private static final String DATE_HEADER = "Date";
+    private static final String AGE_HEADER = "Age";
+
+    private final CacheControl cacheControl;
+    private final boolean storable;
+    private final boolean shareable;
+    private final boolean hasValidators;
+    private final int freshSeconds;
+
+    private CachePolicy(CacheControl cacheControl, boolean storable, boolean shareable,
+            boolean hasValidators, int freshSeconds) {
+        this.cacheControl = cacheControl;
+        this.storable = storable;
+        this.shareable = shareable;
+        this.hasValidators = hasValidators;
+        this.freshSeconds = freshSeconds;
+    }
+
+    /**
+     * Evaluates the headers of the response.
+     *
+     * @param requestTime When the request was sent (in milliseconds)
+     * @param responseTime When the response was received (in milliseconds)
+     */
+    public static CachePolicy evaluate(HttpResponse httpResponse, long requestTime, long responseTime) {
+
+        final CacheControl cacheControl = CacheControl.parse(getValues(httpResponse, Headers.CACHE_CONTROL.getName()));
+
+        final boolean hasValidators = httpResponse.containsHeader(Headers.ETAG.getName())
+                || httpResponse.containsHeader(Headers.LAST_MODIFIED.getName());
+
+        // Pragma: no-cache is honored only in the absence of Cache-Control
+        final boolean noCache = cacheControl.isNoCache()
+                || (!httpResponse.containsHeader(Headers.CACHE_CONTROL.getName())
+                        && containsToken(httpResponse.getFirstHeader(PRAGMA_HEADER), "no-cache"));
+
+        final boolean shareable = !cacheControl.isPrivate()
+                && (cacheControl.isPublic()
+                        || cacheControl.getSharedMaxAge() != CacheControl.ABSENT
+                        || cacheControl.isMustRevalidate());
+
+        // Freshness lifetime (section 4.2.1)
+        final Date dateValue = parseDate(httpResponse.getFirstHeader(DATE_HEADER));
+        long freshnessLifetime = -1L;
+        if (shareable && cacheControl.getSharedMaxAge() != CacheControl.ABSENT) {
+            freshnessLifetime = cacheControl.getSharedMaxAge();
+        } else if (cacheControl.getMaxAge() != CacheControl.ABSENT) {
+            freshnessLifetime = cacheControl.getMaxAge();
+        } else if (httpResponse.containsHeader(EXPIRES_HEADER)) {
+            // An invalid Expires value (e.g. "0") represents a time in the past
+            final Date expires = parseDate(httpResponse.getFirstHeader(EXPIRES_HEADER));
+            final long baseline = dateValue != null ? dateValue.getTime() : responseTime;
+            freshnessLifetime = expires != null
+                    ? Math.max(0L, (expires.getTime() - baseline) / 1000L)
+                    : 0L;
+        }
+
+        final boolean explicitFreshness = freshnessLifetime >= 0L;
+        final boolean storable = !cacheControl.isNoStore()
+                && (hasValidators || (explicitFreshness && freshnessLifetime > 0L && !noCache));
+        if (!storable) {
+            return new CachePolicy(cacheControl, false, false, hasValidators, 0);
+        }
+
+        // Current age (section 4.2.3)
+        final long ageValue = parseDeltaSeconds(httpResponse.getFirstHeader(AGE_HEADER));
+        final long apparentAge = dateValue != null
+                ? Math.max(0L, (responseTime - dateValue.getTime()) / 1000L)
+                : 0L;
+        final long responseDelay = Math.max(0L, (responseTime - requestTime) / 1000L);
+        final long currentAge = Math.max(apparentAge, ageValue + responseDelay);
+
+        final long remaining = noCache || !explicitFreshness
+                ? 0L
+                : Math.max(0L, freshnessLifetime - currentAge);
+
+        return new CachePolicy(cacheControl, true, shareable, hasValidators,
+                (int) Math.min(remaining, Integer.MAX_VALUE));
+
+    }
+
+    public CacheControl getCacheControl() {
+        return cacheControl;
+    }
+
+    /**
+     * Indicates the response may be cached at all.
+     */
+    public boolean isStorable() {
+        return storable;
+    }
+
+    /**
+     * Indicates the response may be shared among all users (public scope);
+     * otherwise it may be cached only for the user who requested it.
+     */
+    public boolean isShareable() {
+        return shareable;
+    }
+
+    /**
+     * Indicates the response carries an <code>ETag</code> or a
+     * <code>Last-Modified</code> date, so it can be revalidated.
+     */
+    public boolean hasValidators() {
+        return hasValidators;
+    }
+
+    /**
+     * Number of seconds (from when the response was received) for which it
+     * may be used without revalidation;  0 if it must always be revalidated.
+     */
+    public int getFreshSeconds() {
+        return freshSeconds;
+    }
+
+    /**
+     * Indicates a stale response must not be used without revalidating it
+     * first, in the scope selected by this policy.
+     */
+    public boolean isMustRevalidate() {
+        return cacheControl.isMustRevalidate()
+                || (shareable && cacheControl.isProxyRevalidate());
+    }
+
+    /**
+     * Number of seconds after the response becomes stale during which it may
+     * still be used while it is revalidated in the background (RFC 5861);  0
+     * if the response must be revalidated before it is used.
+     */
+    public int getStaleWhileRevalidateSeconds() {
+        return isMustRevalidate() || cacheControl.getStaleWhileRevalidate() == CacheControl.ABSENT
+                ? 0
+                : cacheControl.getStaleWhileRevalidate();
+    }
+
+    /**
+     * Number of seconds after the response becomes stale during which it may
+     * still be used if a request to the remote soffit fails (RFC 5861);  0 if
+     * the response must not be used once it is stale.
+     */
+    public int getStaleIfErrorSeconds() {
+        return isMustRevalidate() || cacheControl.getStaleIfError() == CacheControl.ABSENT
+                ? 0
+                : cacheControl.getStaleIfError();
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this).
+            append("storable", storable).
+            append("shareable", shareable).
+            append("hasValidators", hasValidators).
+            append("freshSeconds", freshSeconds).
+            append("cacheControl", cacheControl).
+            toString();
+    }
+
+    /*
+     * Implementation
+     */
+
+    private static String[] getValues(HttpResponse httpResponse, String name) {
+        final Header[] headers = httpResponse.getHeaders(name);
+        final String[] rslt = new String[headers.length];
+        for (int i = 0; i < headers.length; i++) {
+            rslt[i] = headers[i].getValue();
+        }
+        return rslt;
+    }
+
+    private static boolean containsToken(Header header, String token) {
+        return header != null && header.getValue() != null
+                && header.getValue().toLowerCase().contains(token);
+    }
+
+    private static Date parseDate(Header header) {
+        return header != null && header.getValue() != null
+                ? DateUtils.parseDate(header.getValue())
+                : null;
+    }
+
+    private static long parseDeltaSeconds(Header header) {
+        if (header == null || header.getValue() == null) {
+            return 0L;
+        }
+        try {
+            return Math.max(0L, Long.parseLong(header.getValue().trim()));
+        } catch (NumberFormatException e) {
+            return 0L;
+        }
+    }
+
+}
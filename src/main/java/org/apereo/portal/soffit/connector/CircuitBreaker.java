@@ -0,0 +1,106 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apereo.portal.soffit.connector;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tracks the health of a single remote soffit (serviceUrl).  After
+ * failureThreshold consecutive failures the circuit opens, and requests fail
+ * fast (without waiting for timeouts) for openMillis.  Then the circuit is
+ * half-open:  a single trial request is allowed through;  if it succeeds the
+ * circuit closes, otherwise it opens again.
+ *
+ * @author agent
+ */
+public final class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openMillis;
+
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicBoolean trialInProgress = new AtomicBoolean();
+    private volatile long openedAt = 0L;  // Zero means closed
+
+    /**
+     * @param failureThreshold Consecutive failures that open the circuit;  0
+     * (or less) means the circuit never opens
+     * @param openMillis How long the circuit remains open before a trial
+     */
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    public State getState() {
+        final long opened = openedAt;
+        if (opened == 0L) {
+            return State.CLOSED;
+        }
+        return System.currentTimeMillis() - opened < openMillis
+                ? State.OPEN
+                : State.HALF_OPEN;
+    }
+
+    /**
+     * Indicates whether a request may be sent now.  When the circuit is
+     * half-open, only one caller (the trial) receives <code>true</code>;  that
+     * caller must report the outcome with {@link #recordSuccess()} or
+     * {@link #recordFailure()}.
+     */
+    public boolean allowRequest() {
+        switch (getState()) {
+            case CLOSED:
+                return true;
+            case HALF_OPEN:
+                return trialInProgress.compareAndSet(false, true);
+            default:
+                return false;
+        }
+    }
+
+    public void recordSuccess() {
+        consecutiveFailures.set(0);
+        openedAt = 0L;
+        trialInProgress.set(false);
+    }
+
+    public void recordFailure() {
+        final int failures = consecutiveFailures.incrementAndGet();
+        if (trialInProgress.get() || (failureThreshold > 0 && failures >= failureThreshold)) {
+            // (Re)open the circuit
+            openedAt = System.currentTimeMillis();
+            trialInProgress.set(false);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CircuitBreaker [state=" + getState() + ", consecutiveFailures=" + consecutiveFailures.get() + "]";
+    }
+
+}
@@ -0,0 +1,114 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apereo.portal.soffit.connector;
+
+/**
+ * Caps the number of requests in flight to a single remote soffit
+ * (serviceUrl).  The limit adapts using AIMD (additive increase,
+ * multiplicative decrease):  each request that completes successfully within
+ * the target latency raises the limit by roughly one per "window" of
+ * requests;  each failure or slow response cuts it by backoffRatio.  Requests
+ * over the limit are rejected immediately, so a slow soffit cannot absorb
+ * the connection pool shared by all soffits.
+ *
+ * @author agent
+ */
+public final class ConcurrencyLimiter {
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long targetLatencyMillis;
+    private final double backoffRatio;
+
+    private double limit;  // Guarded by this
+    private int inFlight = 0;  // Guarded by this
+
+    /**
+     * @param initialLimit Starting limit
+     * @param minLimit The limit never drops below this value
+     * @param maxLimit The limit never rises above this value
+     * @param targetLatencyMillis Responses slower than this count as congestion
+     * @param backoffRatio Multiplier (between 0 and 1) applied on congestion
+     */
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit,
+            long targetLatencyMillis, double backoffRatio) {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("Invalid limits:  min=" + minLimit + ", max=" + maxLimit);
+        }
+        if (backoffRatio <= 0.0 || backoffRatio >= 1.0) {
+            throw new IllegalArgumentException("Invalid backoffRatio:  " + backoffRatio);
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.targetLatencyMillis = targetLatencyMillis;
+        this.backoffRatio = backoffRatio;
+        this.limit = Math.min(Math.max(initialLimit, minLimit), maxLimit);
+    }
+
+    /**
+     * Reserves a slot for a request, if one is available.  Callers that
+     * receive <code>true</code> must call {@link #release(long, boolean)}
+     * (or {@link #cancel()}) exactly once.
+     */
+    public synchronized boolean tryAcquire() {
+        if (inFlight >= (int) limit) {
+            return false;
+        }
+        ++inFlight;
+        return true;
+    }
+
+    /**
+     * Frees the slot and adjusts the limit based on the outcome.
+     *
+     * @param latencyMillis Duration of the request
+     * @param success Whether the soffit responded without a server error
+     */
+    public synchronized void release(long latencyMillis, boolean success) {
+        --inFlight;
+        if (!success || latencyMillis > targetLatencyMillis) {
+            limit = Math.max(minLimit, limit * backoffRatio);
+        } else if (inFlight + 1 >= (int) limit) {
+            // Only grow when the limit is actually constraining us
+            limit = Math.min(maxLimit, limit + (1.0 / limit));
+        }
+    }
+
+    /**
+     * Frees the slot without adjusting the limit (the request was never sent).
+     */
+    public synchronized void cancel() {
+        --inFlight;
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ConcurrencyLimiter [limit=" + (int) limit + ", inFlight=" + inFlight + "]";
+    }
+
+}
@@ -0,0 +1,112 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apereo.portal.soffit.connector;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apereo.portal.soffit.metrics.Histogram;
+
+/**
+ * Collects the metrics of the Soffit Connector as a whole.
+ *
+ * @since 5.0
+ * @author agent
+ */
+public final class ConnectorMetrics implements ConnectorMetricsMXBean {
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+
+    private final AtomicLong publicCacheHits = new AtomicLong();
+    private final AtomicLong privateCacheHits = new AtomicLong();
+    private final AtomicLong staleCacheHits = new AtomicLong();
+    private final AtomicLong cacheMisses = new AtomicLong();
+    private final Histogram headerLatency = new Histogram();
+
+    public ConnectorMetrics(PoolingHttpClientConnectionManager connectionManager) {
+        this.connectionManager = connectionManager;
+    }
+
+    @Override
+    public long getPublicCacheHits() {
+        return publicCacheHits.get();
+    }
+
+    @Override
+    public long getPrivateCacheHits() {
+        return privateCacheHits.get();
+    }
+
+    @Override
+    public long getStaleCacheHits() {
+        return staleCacheHits.get();
+    }
+
+    @Override
+    public long getCacheMisses() {
+        return cacheMisses.get();
+    }
+
+    @Override
+    public Histogram getHeaderLatency() {
+        return headerLatency;
+    }
+
+    @Override
+    public int getLeasedConnections() {
+        return connectionManager.getTotalStats().getLeased();
+    }
+
+    @Override
+    public int getAvailableConnections() {
+        return connectionManager.getTotalStats().getAvailable();
+    }
+
+    @Override
+    public int getPendingConnections() {
+        return connectionManager.getTotalStats().getPending();
+    }
+
+    @Override
+    public int getMaxConnections() {
+        return connectionManager.getTotalStats().getMax();
+    }
+
+    public void recordCacheHit(boolean publicScope) {
+        if (publicScope) {
+            publicCacheHits.incrementAndGet();
+        } else {
+            privateCacheHits.incrementAndGet();
+        }
+    }
+
+    public void recordStaleCacheHit() {
+        staleCacheHits.incrementAndGet();
+    }
+
+    public void recordCacheMiss() {
+        cacheMisses.incrementAndGet();
+    }
+
+    public void recordHeaders(long nanos) {
+        headerLatency.record(nanos);
+    }
+
+}
@@ -0,0 +1,73 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apereo.portal.soffit.connector;
+
+import org.apereo.portal.soffit.metrics.Histogram;
+
+/**
+ * Metrics of the Soffit Connector as a whole, published over JMX as
+ * <code>org.apereo.portal.soffit:type=Connector</code>.
+ *
+ * @since 5.0
+ * @author agent
+ */
+public interface ConnectorMetricsMXBean {
+
+    /**
+     * Fresh responses found in the cache under a public-scope key.
+     */
+    long getPublicCacheHits();
+
+    /**
+     * Fresh responses found in the cache under a private-scope key.
+     */
+    long getPrivateCacheHits();
+
+    /**
+     * Expired responses found in the cache (usable for
+     * stale-while-revalidate, stale-if-error, or revalidation).
+     */
+    long getStaleCacheHits();
+
+    long getCacheMisses();
+
+    /**
+     * Time to create the headers for each request.
+     */
+    Histogram getHeaderLatency();
+
+    /**
+     * Connections of the pool in use.
+     */
+    int getLeasedConnections();
+
+    /**
+     * Connections of the pool idle & available.
+     */
+    int getAvailableConnections();
+
+    /**
+     * Requests waiting for a connection from the pool.
+     */
+    int getPendingConnections();
+
+    int getMaxConnections();
+
+}
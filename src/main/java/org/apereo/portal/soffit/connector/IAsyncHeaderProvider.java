@@ -0,0 +1,47 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apereo.portal.soffit.connector;
+
+import java.util.concurrent.Callable;
+
+import javax.portlet.RenderRequest;
+import javax.portlet.RenderResponse;
+
+import org.apache.http.Header;
+
+/**
+ * Optional extension of {@link IHeaderProvider} for providers whose headers
+ * are expensive to produce (e.g. encrypted JWTs).  The
+ * {@link SoffitConnectorController} invokes <code>prepareHeader</code> on the
+ * render thread, then calls the tasks of several providers concurrently.
+ *
+ * @since 5.0
+ * @author agent
+ */
+public interface IAsyncHeaderProvider extends IHeaderProvider {
+
+    /**
+     * Reads everything the header needs from the request and response (which
+     * may only be used on the render thread) and returns a task that produces
+     * the header.  The task may be called on another thread.
+     */
+    Callable<Header> prepareHeader(RenderRequest renderRequest, RenderResponse renderResponse);
+
+}
@@ -21,10 +21,12 @@ package org.apereo.portal.soffit.connector;
 
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 import javax.portlet.RenderRequest;
 import javax.portlet.RenderResponse;
@@ -43,60 +45,112 @@ import org.springframework.beans.factory.annotation.Autowired;
  * @since 5.0
  * @author drewwills
  */
-public class PortalRequestHeaderProvider extends AbstractHeaderProvider{
+public class PortalRequestHeaderProvider extends AbstractHeaderProvider
+        implements IAsyncHeaderProvider {
 
     public static final String NAMESPACE_PREFIX = "n_";
 
     @Autowired
     private PortalRequestService portalRequestService;
 
+    @Override
+    public String getHeaderName() {
+        return Headers.PORTAL_REQUEST.getName();
+    }
+
     @Override
     public Header createHeader(RenderRequest renderRequest, RenderResponse renderResponse) {
+        return call(prepareHeader(renderRequest, renderResponse));
+    }
+
+    @Override
+    public Callable<Header> prepareHeader(RenderRequest renderRequest, RenderResponse renderResponse) {
 
         // Username
         final String username = getUsername(renderRequest);
 
         // Properties
-        final Map<String,String> properties = new HashMap<>();
+        final Map<String,String> properties = getProperties(renderRequest);
+
+        // Attributes
+        final Map<String,List<String>> attributes = getAttributes(renderRequest);
+
+        // Parameters
+        final Map<String,List<String>> parameters = getParameters(renderRequest);
+
+        // Expiration
+        final Date expires = getExpiration(renderRequest);
+
+        // PortalRequest header (the expensive part)
+        return new Callable<Header>() {
+            @Override
+            public Header call() {
+                final PortalRequest portalRequest = portalRequestService.createPortalRequest(properties, attributes, parameters, username, expires);
+                final Header rslt = new BasicHeader(
+                        Headers.PORTAL_REQUEST.getName(),
+                        portalRequest.getEncryptedToken());
+                logger.debug("Produced the following PortalRequest header for username='{}':  {}", username, rslt);
+                return rslt;
+            }
+        };
+
+    }
+
+    /*
+     * Implementation
+     */
+
+    /**
+     * Request properties (e.g. HTTP headers from the browser), limited to the
+     * ones listed in the requiredProperties preference, if specified.
+     */
+    private Map<String,String> getProperties(RenderRequest renderRequest) {
+        final Map<String,String> rslt = new HashMap<>();
+        final String[] requiredProperties = renderRequest.getPreferences()
+                .getValues(SoffitConnectorController.REQUIRED_PROPERTIES_PREFERENCE, null);
+        if (requiredProperties != null) {
+            for (String propertyName : requiredProperties) {
+                final String value = renderRequest.getProperty(propertyName);
+                if (value != null) {
+                    rslt.put(propertyName, value);
+                }
+            }
+            return rslt;
+        }
         final Enumeration<String> names = renderRequest.getPropertyNames();
         for (String propertyName = names.nextElement(); names.hasMoreElements();  propertyName = names.nextElement()) {
-            properties.put(propertyName, renderRequest.getProperty(propertyName));
+            rslt.put(propertyName, renderRequest.getProperty(propertyName));
         }
+        return rslt;
+    }
 
-        // Attributes
-        final Map<String,List<String>> attributes = new HashMap<>();
-        attributes.put(Attributes.NAMESPACE.getName(),
+    private Map<String,List<String>> getAttributes(RenderRequest renderRequest) {
+        final Map<String,List<String>> rslt = new HashMap<>();
+        rslt.put(Attributes.NAMESPACE.getName(),
                 Collections.singletonList(NAMESPACE_PREFIX + renderRequest.getWindowID()));
-        attributes.put(Attributes.MODE.getName(),
+        rslt.put(Attributes.MODE.getName(),
                 Collections.singletonList(renderRequest.getPortletMode().toString()));
-        attributes.put(Attributes.WINDOW_STATE.getName(),
+        rslt.put(Attributes.WINDOW_STATE.getName(),
                 Collections.singletonList(renderRequest.getWindowState().toString()));
-        attributes.put(Attributes.PORTAL_INFO.getName(),
+        rslt.put(Attributes.PORTAL_INFO.getName(),
                 Collections.singletonList(renderRequest.getPortalContext().getPortalInfo()));
-        attributes.put(Attributes.SCHEME.getName(),
+        rslt.put(Attributes.SCHEME.getName(),
                 Collections.singletonList(renderRequest.getScheme()));
-        attributes.put(Attributes.SERVER_NAME.getName(),
+        rslt.put(Attributes.SERVER_NAME.getName(),
                 Collections.singletonList(renderRequest.getServerName()));
-        attributes.put(Attributes.SERVER_PORT.getName(),
+        rslt.put(Attributes.SERVER_PORT.getName(),
                 Collections.singletonList(Integer.valueOf(renderRequest.getServerPort()).toString()));
-        attributes.put(Attributes.SECURE.getName(),
+        rslt.put(Attributes.SECURE.getName(),
                 Collections.singletonList(Boolean.valueOf(renderRequest.isSecure()).toString()));
+        return rslt;
+    }
 
-        // Parameters
-        final Map<String,List<String>> parameters = new HashMap<>();
+    private Map<String,List<String>> getParameters(RenderRequest renderRequest) {
+        final Map<String,List<String>> rslt = new HashMap<>();
         for (Map.Entry<String,String[]> y : renderRequest.getParameterMap().entrySet()) {
-            parameters.put(y.getKey(), Arrays.asList(y.getValue()));
+            rslt.put(y.getKey(), Arrays.asList(y.getValue()));
         }
-
-        // Preferences header
-        final PortalRequest portalRequest = portalRequestService.createPortalRequest(properties, attributes, parameters, username, getExpiration(renderRequest));
-        final Header rslt = new BasicHeader(
-                Headers.PORTAL_REQUEST.getName(),
-                portalRequest.getEncryptedToken());
-        logger.debug("Produced the following PortalRequest header for username='{}':  {}", username, rslt);
-
         return rslt;
-
     }
 
 }
@@ -20,9 +20,11 @@
 package org.apereo.portal.soffit.connector;
 
 import java.util.Arrays;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 import javax.portlet.PortletPreferences;
 import javax.portlet.RenderRequest;
@@ -41,13 +43,23 @@ import org.springframework.beans.factory.annotation.Autowired;
  * @since 5.0
  * @author drewwills
  */
-public class PreferencesHeaderProvider extends AbstractHeaderProvider {
+public class PreferencesHeaderProvider extends AbstractHeaderProvider implements IAsyncHeaderProvider {
 
     @Autowired
     private PreferencesService preferencesService;
 
+    @Override
+    public String getHeaderName() {
+        return Headers.PREFERECES.getName();
+    }
+
     @Override
     public Header createHeader(RenderRequest renderRequest, RenderResponse renderResponse) {
+        return call(prepareHeader(renderRequest, renderResponse));
+    }
+
+    @Override
+    public Callable<Header> prepareHeader(RenderRequest renderRequest, RenderResponse renderResponse) {
 
         // Username
         final String username = getUsername(renderRequest);
@@ -72,14 +84,21 @@ public class PreferencesHeaderProvider extends AbstractHeaderProvider {
             }
         }
 
-        // Preferences header
-        final Preferences preferences = preferencesService.createPreferences(preferencesMap, username, getExpiration(renderRequest));
-        final Header rslt = new BasicHeader(
-                Headers.PREFERECES.getName(),
-                preferences.getEncryptedToken());
-        logger.debug("Produced the following Preferences header for username='{}':  {}", username, rslt);
+        // Expiration
+        final Date expires = getExpiration(renderRequest);
 
-        return rslt;
+        // Preferences header (the expensive part)
+        return new Callable<Header>() {
+            @Override
+            public Header call() {
+                final Preferences preferences = preferencesService.createPreferences(preferencesMap, username, expires);
+                final Header rslt = new BasicHeader(
+                        Headers.PREFERECES.getName(),
+                        preferences.getEncryptedToken());
+                logger.debug("Produced the following Preferences header for username='{}':  {}", username, rslt);
+                return rslt;
+            }
+        };
 
     }
 
@@ -19,14 +19,36 @@
 
 package org.apereo.portal.soffit.connector;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.net.URI;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.management.ObjectName;
 import javax.portlet.PortletPreferences;
+import javax.portlet.PortletSession;
 import javax.portlet.RenderRequest;
 import javax.portlet.RenderResponse;
 
@@ -34,18 +56,31 @@ import net.sf.ehcache.Cache;
 import net.sf.ehcache.Element;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.TeeOutputStream;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.http.Header;
+import org.apache.http.HttpClientConnection;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.routing.HttpRoute;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.protocol.HttpContext;
 import org.apache.http.util.EntityUtils;
 import org.apereo.portal.soffit.Headers;
-import org.apereo.portal.soffit.renderer.SoffitRendererController;
+import org.apereo.portal.soffit.metrics.MetricsRegistrar;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.BeansException;
@@ -59,6 +94,8 @@ import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.portlet.bind.annotation.RenderMapping;
 
+import io.jsonwebtoken.Claims;
+
 @Controller
 @RequestMapping(value={"VIEW","EDIT","HELP"})
 public class SoffitConnectorController implements ApplicationContextAware {
@@ -70,7 +107,46 @@ public class SoffitConnectorController implements ApplicationContextAware {
 
     private static final String SERVICE_URL_PREFERENCE = CONNECTOR_PREFERENCE_PREFIX + ".serviceUrl";
 
-    private static final int TIMEOUT_SECONDS = 10;
+    /**
+     * Optional preference that raises (or lowers) the connection pool limit
+     * for the route (scheme, host & port) of this soffit's serviceUrl.
+     */
+    private static final String MAX_CONNECTIONS_PER_ROUTE_PREFERENCE = CONNECTOR_PREFERENCE_PREFIX + ".maxConnectionsPerRoute";
+
+    /**
+     * Optional, multi-valued preference listing the headers (e.g.
+     * X-Soffit-PortalRequest, Authorization) this soffit needs;  if
+     * specified, header providers for other headers are skipped.
+     */
+    private static final String REQUIRED_HEADERS_PREFERENCE = CONNECTOR_PREFERENCE_PREFIX + ".requiredHeaders";
+
+    /**
+     * Optional, multi-valued preference listing the request properties this
+     * soffit needs in the PortalRequest;  if specified, others are omitted.
+     */
+    public static final String REQUIRED_PROPERTIES_PREFERENCE = CONNECTOR_PREFERENCE_PREFIX + ".requiredProperties";
+
+    /**
+     * Optional preference containing markup to show in place of this soffit
+     * when it fails (or its circuit is open) and no cached response is
+     * available.
+     */
+    private static final String FALLBACK_CONTENT_PREFERENCE = CONNECTOR_PREFERENCE_PREFIX + ".fallbackContent";
+
+    /**
+     * Optional preference that overrides timeoutMillis for this soffit.
+     */
+    private static final String TIMEOUT_MILLIS_PREFERENCE = CONNECTOR_PREFERENCE_PREFIX + ".timeoutMillis";
+
+    private static final double CONCURRENCY_LIMIT_BACKOFF_RATIO = 0.9;
+
+    /**
+     * Default connect, socket (read), and connection request timeout for
+     * soffits;  each soffit may override it with the timeoutMillis
+     * preference.
+     */
+    @Value("${org.apereo.portlet.soffit.connector.SoffitConnectorController.timeoutMillis:10000}")
+    private Integer timeoutMillis;
 
     @Value("${org.apereo.portlet.soffit.connector.SoffitConnectorController.maxConnectionsPerRoute:20}")
     private Integer maxConnectionsPerRoute;
@@ -78,19 +154,203 @@ public class SoffitConnectorController implements ApplicationContextAware {
     @Value("${org.apereo.portlet.soffit.connector.SoffitConnectorController.maxConnectionsTotal:50}")
     private Integer maxConnectionsTotal;
 
-    private final RequestConfig requestConfig = RequestConfig.custom()
-            .setSocketTimeout(TIMEOUT_SECONDS * 1000)
-            .setConnectTimeout(TIMEOUT_SECONDS * 1000)
-            .build();
+    /**
+     * How long a pooled connection may be kept alive when the remote soffit
+     * does not specify a <code>Keep-Alive</code> timeout itself.
+     */
+    @Value("${org.apereo.portlet.soffit.connector.SoffitConnectorController.keepAliveSeconds:30}")
+    private Integer keepAliveSeconds;
+
+    /**
+     * Pooled connections that sit idle longer than this are closed by a
+     * background evictor thread.
+     */
+    @Value("${org.apereo.portlet.soffit.connector.SoffitConnectorController.maxIdleSeconds:60}")
+    private Integer maxIdleSeconds;
+
+    /**
+     * Pooled connections that have been inactive longer than this are
+     * checked for staleness before they are leased again.
+     */
+    @Value("${org.apereo.portlet.soffit.connector.SoffitConnectorController.validateAfterInactivityMillis:2000}")
+    private Integer validateAfterInactivityMillis;
+
+    /**
+     * Comma-separated list of soffit URLs to which the connector should open
+     * connections at startup, so the first renders don't pay for them.
+     */
+    @Value("${org.apereo.portlet.soffit.connector.SoffitConnectorController.prewarmServiceUrls:}")
+    private String prewarmServiceUrls;
+
+    @Value("${org.apereo.portlet.soffit.connector.SoffitConnectorController.prewarmConnectionsPerRoute:2}")
+    private Integer prewarmConnectionsPerRoute;
+
+    /**
+     * Number of threads available for producing the headers (encrypted JWTs)
+     * of a request concurrently;  0 means one per available processor.
+     */
+    @Value("${org.apereo.portlet.soffit.connector.SoffitConnectorController.headerThreads:0}")
+    private Integer headerThreads;
+
+    /**
+     * Number of threads available for sending requests to soffits in the
+     * background when the portal renders in two phases (RENDER_HEADERS, then
+     * RENDER_MARKUP).
+     */
+    @Value("${org.apereo.portlet.soffit.connector.SoffitConnectorController.fetchThreads:20}")
+    private Integer fetchThreads;
+
+    /**
+     * Maximum number of background requests that may wait for a thread;
+     * beyond this, soffits are fetched on the render thread.
+     */
+    @Value("${org.apereo.portlet.soffit.connector.SoffitConnectorController.fetchQueueSize:100}")
+    private Integer fetchQueueSize;
+
+    /**
+     * Number of threads available for refreshing stale responses (that
+     * specify stale-while-revalidate) in the background.
+     */
+    @Value("${org.apereo.portlet.soffit.connector.SoffitConnectorController.refreshThreads:5}")
+    private Integer refreshThreads;
+
+    /**
+     * Maximum number of background refreshes that may wait for a thread;
+     * beyond this, refreshes are skipped until a later request.
+     */
+    @Value("${org.apereo.portlet.soffit.connector.SoffitConnectorController.refreshQueueSize:50}")
+    private Integer refreshQueueSize;
+
+    /**
+     * Maximum time a request waits for an identical in-flight request (for a
+     * shareable response) before invoking the remote soffit itself.
+     */
+    @Value("${org.apereo.portlet.soffit.connector.SoffitConnectorController.coalescingTimeoutMillis:3000}")
+    private Integer coalescingTimeoutMillis;
+
+    /**
+     * Consecutive failures (I/O errors, timeouts, or 5xx responses) after
+     * which requests to a soffit fail fast;  0 disables the circuit breaker.
+     */
+    @Value("${org.apereo.portlet.soffit.connector.SoffitConnectorController.circuitBreakerFailureThreshold:5}")
+    private Integer circuitBreakerFailureThreshold;
+
+    /**
+     * Seconds a circuit remains open before a trial request is allowed.
+     */
+    @Value("${org.apereo.portlet.soffit.connector.SoffitConnectorController.circuitBreakerOpenSeconds:30}")
+    private Integer circuitBreakerOpenSeconds;
+
+    /**
+     * Number of concurrent requests initially allowed to each soffit;  the
+     * limit then adapts (up to the connections available to the route) based
+     * on how the soffit responds.
+     */
+    @Value("${org.apereo.portlet.soffit.connector.SoffitConnectorController.concurrencyLimitInitial:10}")
+    private Integer concurrencyLimitInitial;
+
+    /**
+     * Responses slower than this cause the concurrency limit for the soffit
+     * to shrink.
+     */
+    @Value("${org.apereo.portlet.soffit.connector.SoffitConnectorController.concurrencyLimitTargetLatencyMillis:2000}")
+    private Long concurrencyLimitTargetLatencyMillis;
+
+    /**
+     * Number of seconds a response that carries validators (ETag or
+     * Last-Modified) remains in the cache after it becomes stale, waiting to
+     * be revalidated with a conditional request.
+     */
+    @Value("${org.apereo.portlet.soffit.connector.SoffitConnectorController.validatedResponseTimeToLive:300}")
+    private Integer validatedResponseTimeToLive;
+
+    /**
+     * Honors the <code>Keep-Alive</code> header of the remote soffit, if
+     * present;  otherwise falls back to keepAliveSeconds.
+     */
+    private final ConnectionKeepAliveStrategy keepAliveStrategy = new ConnectionKeepAliveStrategy() {
+        @Override
+        public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+            final long rslt = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            return rslt > 0 ? rslt : keepAliveSeconds * 1000L;
+        }
+    };
+
+    private PoolingHttpClientConnectionManager connectionManager;
+
+    /**
+     * A single client (and pool) serves every render for the life of the
+     * connector;  it is closed in {@link #destroy()}.
+     */
+    private CloseableHttpClient httpClient;
+
+    /**
+     * Per-route limits that have already been applied to the connectionManager.
+     */
+    private final ConcurrentMap<HttpRoute,Integer> routeLimits = new ConcurrentHashMap<>();
+
+    private ExecutorService headerExecutor;
+
+    private ExecutorService fetchExecutor;
+
+    private ExecutorService refreshExecutor;
+
+    /**
+     * One per serviceUrl.
+     */
+    private final ConcurrentMap<String,CircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+
+    /**
+     * One per serviceUrl.
+     */
+    private final ConcurrentMap<String,ConcurrencyLimiter> concurrencyLimiters = new ConcurrentHashMap<>();
+
+    /**
+     * One per serviceUrl.
+     */
+    private final ConcurrentMap<String,SoffitMetrics> soffitMetrics = new ConcurrentHashMap<>();
+
+    private ConnectorMetrics connectorMetrics;
+
+    /**
+     * Names of the metrics MBeans we registered (to unregister on destroy).
+     */
+    private final Set<ObjectName> metricsObjectNames =
+            Collections.newSetFromMap(new ConcurrentHashMap<ObjectName,Boolean>());
+
+    /**
+     * Stale responses that are being refreshed by the refreshExecutor.
+     */
+    private final Set<ResponseWrapper> refreshesInProgress =
+            Collections.newSetFromMap(new ConcurrentHashMap<ResponseWrapper,Boolean>());
+
+    /**
+     * Public-scope keys whose most recent response was shareable;  concurrent
+     * misses for these are coalesced into a single request.
+     */
+    private final Set<CacheTuple> shareableCacheTuples =
+            Collections.newSetFromMap(new ConcurrentHashMap<CacheTuple,Boolean>());
+
+    /**
+     * Requests in flight for shareable responses, by public-scope key;  other
+     * requests for the same key wait on the latch.
+     */
+    private final ConcurrentMap<CacheTuple,CountDownLatch> inFlightFetches = new ConcurrentHashMap<>();
 
-    private final HttpClientBuilder httpClientBuilder = HttpClientBuilder
-            .create()
-            .setDefaultRequestConfig(requestConfig)
-            .setConnectionManagerShared(true);  // Prevents the client from shutting down the pool
+    /**
+     * Fetches started during RENDER_HEADERS, by portlet session and window.
+     */
+    private final ConcurrentMap<String,PendingFetch> pendingFetches = new ConcurrentHashMap<>();
 
     private ApplicationContext applicationContext;
     private List<IHeaderProvider> headerProviders;
 
+    /**
+     * Header names by provider, declared or learned;  used to skip providers
+     * whose headers a soffit doesn't need.
+     */
+    private final ConcurrentMap<IHeaderProvider,String> headerNames = new ConcurrentHashMap<>();
+
     @Autowired
     @Qualifier(value="org.apereo.portlet.soffit.connector.SoffitConnectorController.RESPONSE_CACHE")
     private Cache responseCache;
@@ -104,14 +364,74 @@ public class SoffitConnectorController implements ApplicationContextAware {
 
     @PostConstruct
     public void init() {
-        PoolingHttpClientConnectionManager poolingHttpClientConnectionManager = new PoolingHttpClientConnectionManager();
-        poolingHttpClientConnectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
-        poolingHttpClientConnectionManager.setMaxTotal(maxConnectionsTotal);
-        httpClientBuilder.setConnectionManager(poolingHttpClientConnectionManager);
+        connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+        connectionManager.setMaxTotal(maxConnectionsTotal);
+        connectionManager.setValidateAfterInactivity(validateAfterInactivityMillis);
+
+        httpClient = HttpClientBuilder
+                .create()
+                .setDefaultRequestConfig(createRequestConfig(timeoutMillis))
+                .setConnectionManager(connectionManager)
+                .setKeepAliveStrategy(keepAliveStrategy)
+                .evictExpiredConnections()
+                .evictIdleConnections(maxIdleSeconds.longValue(), TimeUnit.SECONDS)
+                .build();
 
         final Map<String, IHeaderProvider> beans = BeanFactoryUtils.beansOfTypeIncludingAncestors(applicationContext, IHeaderProvider.class);
         final List<IHeaderProvider> values = new ArrayList<>(beans.values());
         headerProviders = Collections.unmodifiableList(values);
+        for (IHeaderProvider headerProvider : headerProviders) {
+            if (headerProvider instanceof AbstractHeaderProvider) {
+                final String headerName = ((AbstractHeaderProvider) headerProvider).getHeaderName();
+                if (headerName != null) {
+                    headerNames.put(headerProvider, headerName);
+                }
+            }
+        }
+
+        /*
+         * Header tasks are short and CPU-bound, so there is no queue;  when
+         * every thread is busy, the render thread does the work itself.
+         */
+        final int headerPoolSize = headerThreads > 0 ? headerThreads : Runtime.getRuntime().availableProcessors();
+        final ThreadPoolExecutor headerWorkers = new ThreadPoolExecutor(headerPoolSize, headerPoolSize, 60L, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), new DaemonThreadFactory("soffit-connector-header-"),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        headerWorkers.allowCoreThreadTimeOut(true);
+        headerExecutor = headerWorkers;
+
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(fetchThreads, fetchThreads, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(fetchQueueSize), new DaemonThreadFactory("soffit-connector-fetch-"));
+        executor.allowCoreThreadTimeOut(true);
+        fetchExecutor = executor;
+
+        final ThreadPoolExecutor refresher = new ThreadPoolExecutor(refreshThreads, refreshThreads, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(refreshQueueSize), new DaemonThreadFactory("soffit-connector-refresh-"));
+        refresher.allowCoreThreadTimeOut(true);
+        refreshExecutor = refresher;
+
+        connectorMetrics = new ConnectorMetrics(connectionManager);
+        registerMetrics("Connector", null, connectorMetrics);
+
+        prewarmConnections();
+    }
+
+    @PreDestroy
+    public void destroy() {
+        headerExecutor.shutdownNow();
+        fetchExecutor.shutdownNow();
+        refreshExecutor.shutdownNow();
+        // Also stops the evictor thread and shuts down the connectionManager
+        try {
+            httpClient.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close the HttpClient cleanly", e);
+        }
+        for (ObjectName objectName : metricsObjectNames) {
+            MetricsRegistrar.unregister(objectName);
+        }
+        metricsObjectNames.clear();
     }
 
     @RenderMapping
@@ -123,40 +443,74 @@ public class SoffitConnectorController implements ApplicationContextAware {
             throw new IllegalStateException("Missing portlet prefernce value for " + SERVICE_URL_PREFERENCE);
         }
 
+        /*
+         * When the portal renders in two phases, it calls every portlet on the
+         * page for RENDER_HEADERS before it calls any of them for RENDER_MARKUP.
+         * We use the first phase to start the HTTP request in the background,
+         * so the requests for all the soffits on the page proceed in parallel.
+         */
+        final Object renderPart = req.getAttribute(RenderRequest.RENDER_PART);
+        if (RenderRequest.RENDER_HEADERS.equals(renderPart)) {
+            startFetchIfNeeded(req, res, prefs, serviceUrl);
+            return;
+        }
+
+        // Claim the fetch started during RENDER_HEADERS (if any), whether or not we need it
+        final String pendingFetchKey = RenderRequest.RENDER_MARKUP.equals(renderPart)
+                ? getPendingFetchKey(req)
+                : null;
+        final PendingFetch pendingFetch = pendingFetchKey != null
+                ? pendingFetches.remove(pendingFetchKey)
+                : null;
+
         // First look in cache for an existing response that applies to this request
-        ResponseWrapper responseValue = fetchContentFromCacheIfAvailable(req, serviceUrl);
-        if (responseValue != null) {
+        final ResponseWrapper cachedResponse = fetchContentFromCacheIfAvailable(req, serviceUrl);
+        ResponseWrapper responseValue = null;
+        if (cachedResponse != null && cachedResponse.isFresh()) {
             logger.debug("Response value obtained from cache for serviceUrl '{}'", serviceUrl);
+            responseValue = cachedResponse;
+            if (pendingFetch != null) {
+                // Another request cached the response in the meantime
+                pendingFetch.discard();
+            }
+        } else if (cachedResponse != null && cachedResponse.isStaleWhileRevalidate()) {
+            logger.debug("Stale response value obtained from cache for serviceUrl '{}'", serviceUrl);
+            responseValue = cachedResponse;
+            if (pendingFetch == null) {
+                refreshInBackground(req, res, prefs, serviceUrl, cachedResponse);
+            }
+            // Otherwise the pending fetch completes in the background and refreshes the cache
         } else {
 
-            logger.debug("No applicable response in cache;  invoking serviceUrl '{}'", serviceUrl);
-
-            final HttpGet getMethod = new HttpGet(serviceUrl);
-            try (final CloseableHttpClient httpClient = httpClientBuilder.build()) {
-
-                // Send the data model as encrypted JWT HTTP headers
-                for (IHeaderProvider headerProvider : headerProviders) {
-                    final Header header = headerProvider.createHeader(req, res);
-                    getMethod.addHeader(header);
+            FetchResult fetchResult;
+            if (pendingFetch != null) {
+                logger.debug("Joining the fetch started during RENDER_HEADERS for serviceUrl '{}'", serviceUrl);
+                fetchResult = awaitFetch(pendingFetch, serviceUrl);
+            } else if (getCircuitBreaker(serviceUrl).getState() == CircuitBreaker.State.OPEN) {
+                // Fail fast;  don't bother preparing the request
+                logger.debug("Circuit is open for serviceUrl '{}'", serviceUrl);
+                getSoffitMetrics(serviceUrl).recordRejected();
+                fetchResult = new FetchResult(HttpStatus.SC_SERVICE_UNAVAILABLE, null, false);
+            } else {
+                // Another thread may already be fetching it;  if so, don't prepare a request of our own
+                fetchResult = joinInFlightFetch(createCacheTuple(req, serviceUrl, true), serviceUrl);
+                if (fetchResult == null && !Thread.currentThread().isInterrupted()) {
+                    logger.debug("No fresh response in cache;  invoking serviceUrl '{}'", serviceUrl);
+                    final ServiceRequest serviceRequest = prepareRequest(req, res, prefs, serviceUrl, cachedResponse);
+                    // Stream the response straight through to the portlet
+                    fetchResult = fetchContentCoalesced(serviceRequest, res);
                 }
+            }
 
-                // Send the request
-                final HttpResponse httpResponse = httpClient.execute(getMethod);
-                final int statusCode = httpResponse.getStatusLine().getStatusCode();
-                logger.debug("HTTP response code for url '{}' was '{}'", serviceUrl, statusCode);
-
-                if (statusCode == HttpStatus.SC_OK) {
-                    responseValue = extractResponseAndCacheIfAppropriate(httpResponse, req, serviceUrl);
-                } else {
-                    logger.error("Failed to get content from remote service '{}';  HttpStatus={}", serviceUrl, statusCode);
-                    res.getWriter().write("FAILED!  statusCode="+statusCode);  // TODO:  Better message
+            if (fetchResult != null && fetchResult.getStatusCode() == HttpStatus.SC_OK) {
+                if (!fetchResult.isWritten()) {
+                    responseValue = fetchResult.getResponse();
                 }
-
-                // Ensures that the entity content is fully consumed and the content stream, if exists, is closed.
-                EntityUtils.consume(httpResponse.getEntity());
-
-            } catch (IOException e) {
-                logger.error("Failed to invoke serviceUrl '{}'", serviceUrl, e);
+            } else if (cachedResponse != null && cachedResponse.isStaleIfError()) {
+                logger.warn("Using a stale response from cache for serviceUrl '{}' because the request failed", serviceUrl);
+                responseValue = cachedResponse;
+            } else {
+                writeFailure(res, prefs, serviceUrl, fetchResult);
             }
 
         }
@@ -177,107 +531,839 @@ public class SoffitConnectorController implements ApplicationContextAware {
      * Implementation
      */
 
+    private HttpRoute toRoute(final String serviceUrl) {
+        // Mirrors the route the DefaultRoutePlanner will choose, so the pool recognizes it
+        final HttpHost host = URIUtils.extractHost(URI.create(serviceUrl));
+        final boolean secure = "https".equalsIgnoreCase(host.getSchemeName());
+        final HttpHost target = host.getPort() > 0
+                ? host
+                : new HttpHost(host.getHostName(), secure ? 443 : 80, host.getSchemeName());
+        return new HttpRoute(target, null, secure);
+    }
+
+    private void applyRouteLimitIfSpecified(final PortletPreferences prefs, final String serviceUrl) {
+        final String value = prefs.getValue(MAX_CONNECTIONS_PER_ROUTE_PREFERENCE, null);
+        if (StringUtils.isBlank(value)) {
+            return;
+        }
+        try {
+            final Integer limit = Integer.valueOf(value.trim());
+            final HttpRoute route = toRoute(serviceUrl);
+            if (!limit.equals(routeLimits.put(route, limit))) {
+                logger.info("Setting maxConnectionsPerRoute={} for route '{}'", limit, route);
+                connectionManager.setMaxPerRoute(route, limit);
+            }
+        } catch (IllegalArgumentException e) {
+            logger.warn("Ignoring invalid value '{}' for preference {} on serviceUrl '{}'",
+                                value, MAX_CONNECTIONS_PER_ROUTE_PREFERENCE, serviceUrl);
+        }
+    }
+
+    /**
+     * Opens connections to each of the prewarmServiceUrls on a background
+     * thread and returns them to the pool, ready for the first renders.
+     */
+    private void prewarmConnections() {
+        if (StringUtils.isBlank(prewarmServiceUrls)) {
+            return;
+        }
+        final Thread prewarmThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (String url : prewarmServiceUrls.split(",")) {
+                    if (StringUtils.isNotBlank(url)) {
+                        prewarmRoute(url.trim());
+                    }
+                }
+            }
+        }, "soffit-connector-prewarm");
+        prewarmThread.setDaemon(true);
+        prewarmThread.start();
+    }
+
+    private void prewarmRoute(final String serviceUrl) {
+        final List<HttpClientConnection> connections = new ArrayList<>();
+        try {
+            final HttpRoute route = toRoute(serviceUrl);
+            final HttpClientContext context = HttpClientContext.create();
+            // Lease them all at once;  otherwise we would get the same connection back each time
+            for (int i=0; i < prewarmConnectionsPerRoute; i++) {
+                final ConnectionRequest connectionRequest = connectionManager.requestConnection(route, null);
+                final HttpClientConnection connection = connectionRequest.get(timeoutMillis, TimeUnit.MILLISECONDS);
+                connections.add(connection);
+                if (!connection.isOpen()) {
+                    connectionManager.connect(connection, route, timeoutMillis, context);
+                    connectionManager.routeComplete(connection, route, context);
+                }
+            }
+            logger.info("Prewarmed {} connection(s) for serviceUrl '{}'", connections.size(), serviceUrl);
+        } catch (Exception e) {
+            logger.warn("Failed to prewarm connections for serviceUrl '{}'", serviceUrl, e);
+        } finally {
+            for (HttpClientConnection connection : connections) {
+                connectionManager.releaseConnection(connection, null, keepAliveSeconds, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+    /**
+     * Prepares the request for the remote soffit, including the data model as
+     * encrypted JWT HTTP headers.  Must be invoked on the render thread.
+     *
+     * @param cachedResponse A stale response from the cache, or <code>null</code>;
+     * if it has validators, the request will be conditional
+     */
+    private ServiceRequest prepareRequest(final RenderRequest req, final RenderResponse res,
+            final PortletPreferences prefs, final String serviceUrl, final ResponseWrapper cachedResponse) {
+
+        applyRouteLimitIfSpecified(prefs, serviceUrl);
+
+        final int timeout = getTimeoutMillis(prefs, serviceUrl);
+        final HttpGet getMethod = new HttpGet(serviceUrl);
+        if (timeout != timeoutMillis) {
+            getMethod.setConfig(createRequestConfig(timeout));
+        }
+        final long headersStart = System.nanoTime();
+        final List<Header> headers = createHeaders(req, res, getRequiredHeaders(prefs));
+        connectorMetrics.recordHeaders(System.nanoTime() - headersStart);
+        for (Header header : headers) {
+            getMethod.addHeader(header);
+        }
+
+        // Validation caching
+        if (cachedResponse != null) {
+            if (cachedResponse.getEtag() != null) {
+                getMethod.addHeader(Headers.IF_NONE_MATCH.getName(), cachedResponse.getEtag());
+            }
+            if (cachedResponse.getLastModified() != null) {
+                getMethod.addHeader(Headers.IF_MODIFIED_SINCE.getName(), cachedResponse.getLastModified());
+            }
+        }
+
+        return new ServiceRequest(serviceUrl, getMethod, timeout, createCacheTuple(req, serviceUrl, true),
+                createCacheTuple(req, serviceUrl, false), cachedResponse);
+
+    }
+
+    /**
+     * Produces the headers of all the providers.  Tasks from
+     * {@link IAsyncHeaderProvider} beans run concurrently on the
+     * headerExecutor, except the last one, which runs on this thread while it
+     * would otherwise wait.  Must be invoked on the render thread.
+     *
+     * @param requiredHeaders Names (lower case) of the headers the soffit
+     * needs, or <code>null</code> for all of them
+     */
+    private List<Header> createHeaders(final RenderRequest req, final RenderResponse res,
+            final Set<String> requiredHeaders) {
+
+        final List<Callable<Header>> tasks = new ArrayList<>();
+        final List<Header> rslt = new ArrayList<>();
+        for (IHeaderProvider headerProvider : headerProviders) {
+            final String headerName = headerNames.get(headerProvider);
+            if (requiredHeaders != null && headerName != null
+                    && !requiredHeaders.contains(headerName.toLowerCase())) {
+                // The soffit doesn't need it
+                continue;
+            }
+            if (headerProvider instanceof IAsyncHeaderProvider) {
+                tasks.add(((IAsyncHeaderProvider) headerProvider).prepareHeader(req, res));
+            } else {
+                final Header header = headerProvider.createHeader(req, res);
+                if (headerName == null && header != null) {
+                    headerNames.putIfAbsent(headerProvider, header.getName());
+                }
+                rslt.add(header);
+            }
+        }
+
+        if (tasks.isEmpty()) {
+            return rslt;
+        }
+
+        final List<Future<Header>> futures = new ArrayList<>();
+        try {
+            for (Callable<Header> task : tasks.subList(0, tasks.size() - 1)) {
+                futures.add(headerExecutor.submit(task));
+            }
+            rslt.add(tasks.get(tasks.size() - 1).call());
+            for (Future<Header> future : futures) {
+                rslt.add(future.get());
+            }
+        } catch (ExecutionException e) {
+            throw propagate(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while creating headers", e);
+        } catch (Exception e) {
+            throw propagate(e);
+        } finally {
+            // Only matters if something went wrong
+            for (Future<Header> future : futures) {
+                future.cancel(true);
+            }
+        }
+
+        return rslt;
+
+    }
+
+    /**
+     * @return Names (lower case) of the headers the soffit needs, or
+     * <code>null</code> if it didn't say
+     */
+    private Set<String> getRequiredHeaders(final PortletPreferences prefs) {
+        final String[] values = prefs.getValues(REQUIRED_HEADERS_PREFERENCE, null);
+        if (values == null) {
+            return null;
+        }
+        final Set<String> rslt = new HashSet<>();
+        for (String value : values) {
+            if (StringUtils.isNotBlank(value)) {
+                rslt.add(value.trim().toLowerCase());
+            }
+        }
+        return rslt;
+    }
+
+    private RuntimeException propagate(final Throwable cause) {
+        if (cause instanceof RuntimeException) {
+            return (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new IllegalStateException("Failed to create headers", cause);
+    }
+
+    private int getTimeoutMillis(final PortletPreferences prefs, final String serviceUrl) {
+        final String value = prefs.getValue(TIMEOUT_MILLIS_PREFERENCE, null);
+        if (StringUtils.isBlank(value)) {
+            return timeoutMillis;
+        }
+        try {
+            final int rslt = Integer.parseInt(value.trim());
+            if (rslt > 0) {
+                return rslt;
+            }
+        } catch (NumberFormatException e) {
+            // Fall through
+        }
+        logger.warn("Ignoring invalid value '{}' for preference {} on serviceUrl '{}'",
+                            value, TIMEOUT_MILLIS_PREFERENCE, serviceUrl);
+        return timeoutMillis;
+    }
+
+    private RequestConfig createRequestConfig(final int timeout) {
+        return RequestConfig.custom()
+                .setConnectionRequestTimeout(timeout)
+                .setConnectTimeout(timeout)
+                .setSocketTimeout(timeout)
+                .build();
+    }
+
+    /**
+     * Invokes the remote soffit.  If a {@link RenderResponse} is provided, a
+     * successful response is streamed to it directly;  otherwise this method
+     * does not use the portlet request or response, so it may run on a thread
+     * other than the render thread.
+     *
+     * @return The outcome of the request, or <code>null</code> if it failed
+     */
+    private FetchResult fetchContent(final ServiceRequest serviceRequest, final RenderResponse res) {
+
+        final String serviceUrl = serviceRequest.getServiceUrl();
+        final SoffitMetrics metrics = getSoffitMetrics(serviceUrl);
+
+        final ConcurrencyLimiter concurrencyLimiter = getConcurrencyLimiter(serviceUrl);
+        if (!concurrencyLimiter.tryAcquire()) {
+            logger.warn("Rejecting request to serviceUrl '{}';  {}", serviceUrl, concurrencyLimiter);
+            metrics.recordRejected();
+            return new FetchResult(HttpStatus.SC_SERVICE_UNAVAILABLE, null, false);
+        }
+
+        final CircuitBreaker circuitBreaker = getCircuitBreaker(serviceUrl);
+        if (!circuitBreaker.allowRequest()) {
+            logger.debug("Circuit is open for serviceUrl '{}'", serviceUrl);
+            concurrencyLimiter.cancel();
+            metrics.recordRejected();
+            return new FetchResult(HttpStatus.SC_SERVICE_UNAVAILABLE, null, false);
+        }
+
+        FetchResult rslt = null;
+        boolean healthy = false;
+        CloseableHttpResponse httpResponse = null;
+        final long requestTime = System.currentTimeMillis();
+        final long requestNanos = System.nanoTime();
+        try {
+
+            /*
+             * Tell the soffit how long we will wait, so it doesn't do work we
+             * will throw away.  (We're allowed timeoutMillis to obtain a
+             * connection, then again to read the first bytes of the response.)
+             * It's relative, since the clocks of the portal and the soffit
+             * may not agree.
+             */
+            final long timeout = 2L * serviceRequest.getTimeoutMillis();
+            serviceRequest.getMethod().setHeader(Headers.TIMEOUT.getName(), Long.toString(timeout));
+
+            // Send the request
+            httpResponse = httpClient.execute(serviceRequest.getMethod());
+            final long responseTime = System.currentTimeMillis();
+            final int statusCode = httpResponse.getStatusLine().getStatusCode();
+            logger.debug("HTTP response code for url '{}' was '{}'", serviceUrl, statusCode);
+
+            switch (statusCode) {
+                case HttpStatus.SC_OK:
+                    final ResponseWrapper responseValue = extractResponseAndCacheIfAppropriate(
+                            httpResponse, serviceRequest, res, requestTime, responseTime);
+                    rslt = new FetchResult(statusCode, responseValue, res != null);
+                    break;
+                case HttpStatus.SC_NOT_MODIFIED:
+                    if (serviceRequest.getCachedResponse() != null) {
+                        logger.debug("The cached response for serviceUrl '{}' is still valid", serviceUrl);
+                        final ResponseWrapper revalidated = revalidateCachedResponse(httpResponse, serviceRequest,
+                                requestTime, responseTime);
+                        // From the perspective of the caller, this outcome is the same as a 200
+                        rslt = new FetchResult(HttpStatus.SC_OK, revalidated, false);
+                    } else {
+                        // We didn't send a conditional request
+                        logger.error("Received an unexpected 304 from remote service '{}'", serviceUrl);
+                        rslt = new FetchResult(statusCode, null, false);
+                    }
+                    break;
+                default:
+                    logger.error("Failed to get content from remote service '{}';  HttpStatus={}", serviceUrl, statusCode);
+                    rslt = new FetchResult(statusCode, null, false);
+                    break;
+            }
+
+            // Ensures that the entity content is fully consumed and the content stream, if exists, is closed.
+            EntityUtils.consume(httpResponse.getEntity());
+
+            /*
+             * Only server errors (and I/O failures, including while reading
+             * the body) count against the soffit;  requests it abandoned
+             * because we would have stopped waiting don't.
+             */
+            healthy = statusCode < HttpStatus.SC_INTERNAL_SERVER_ERROR
+                    || httpResponse.getFirstHeader(Headers.ABANDONED.getName()) != null;
+
+        } catch (IOException e) {
+            logger.error("Failed to invoke serviceUrl '{}'", serviceUrl, e);
+            rslt = null;  // Whatever we read is incomplete
+            if (res != null && !res.isCommitted()) {
+                // Don't show part of the body ahead of stale or fallback content
+                res.resetBuffer();
+            }
+        } finally {
+            // Returns the connection to the pool, or discards it if the body wasn't consumed
+            IOUtils.closeQuietly(httpResponse);
+            if (healthy) {
+                circuitBreaker.recordSuccess();
+            } else {
+                circuitBreaker.recordFailure();
+                logger.debug("Recorded failure for serviceUrl '{}';  {}", serviceUrl, circuitBreaker);
+            }
+            concurrencyLimiter.release(System.currentTimeMillis() - requestTime, healthy);
+            metrics.recordRequest(System.nanoTime() - requestNanos, healthy);
+        }
+        return rslt;
+
+    }
+
+    private ConcurrencyLimiter getConcurrencyLimiter(final String serviceUrl) {
+        ConcurrencyLimiter rslt = concurrencyLimiters.get(serviceUrl);
+        if (rslt == null) {
+            // Never allow more than the pool would give this route anyway
+            final int maxLimit = Math.max(1, connectionManager.getMaxPerRoute(toRoute(serviceUrl)));
+            final ConcurrencyLimiter created = new ConcurrencyLimiter(
+                    Math.min(concurrencyLimitInitial, maxLimit), 1, maxLimit,
+                    concurrencyLimitTargetLatencyMillis, CONCURRENCY_LIMIT_BACKOFF_RATIO);
+            rslt = concurrencyLimiters.putIfAbsent(serviceUrl, created);
+            if (rslt == null) {
+                rslt = created;
+            }
+        }
+        return rslt;
+    }
+
+    private SoffitMetrics getSoffitMetrics(final String serviceUrl) {
+        SoffitMetrics rslt = soffitMetrics.get(serviceUrl);
+        if (rslt == null) {
+            final SoffitMetrics created = new SoffitMetrics(getCircuitBreaker(serviceUrl),
+                    getConcurrencyLimiter(serviceUrl));
+            rslt = soffitMetrics.putIfAbsent(serviceUrl, created);
+            if (rslt == null) {
+                rslt = created;
+                registerMetrics("Soffit", serviceUrl, created);
+            }
+        }
+        return rslt;
+    }
+
+    private void registerMetrics(final String type, final String name, final Object mbean) {
+        final ObjectName objectName = MetricsRegistrar.register(type, name, mbean);
+        if (objectName != null) {
+            metricsObjectNames.add(objectName);
+        }
+    }
+
+    private CircuitBreaker getCircuitBreaker(final String serviceUrl) {
+        CircuitBreaker rslt = circuitBreakers.get(serviceUrl);
+        if (rslt == null) {
+            final CircuitBreaker created = new CircuitBreaker(circuitBreakerFailureThreshold,
+                    TimeUnit.SECONDS.toMillis(circuitBreakerOpenSeconds));
+            rslt = circuitBreakers.putIfAbsent(serviceUrl, created);
+            if (rslt == null) {
+                rslt = created;
+            }
+        }
+        return rslt;
+    }
+
+    /**
+     * Writes the fallback content for this soffit, if any, when there is no
+     * response to show.
+     *
+     * @param fetchResult The outcome of the request, or <code>null</code> if it failed
+     */
+    private void writeFailure(final RenderResponse res, final PortletPreferences prefs,
+            final String serviceUrl, final FetchResult fetchResult) {
+        final String fallbackContent = prefs.getValue(FALLBACK_CONTENT_PREFERENCE, null);
+        try {
+            if (fallbackContent != null) {
+                res.getWriter().write(fallbackContent);
+            } else if (fetchResult != null) {
+                res.getWriter().write("FAILED!  statusCode="+fetchResult.getStatusCode());  // TODO:  Better message
+            }
+        } catch (IOException e) {
+            logger.error("Failed to write the response for serviceUrl '{}'", serviceUrl, e);
+        }
+    }
+
+    /**
+     * Invokes the remote soffit, unless a request for the same public-scope
+     * response is already in flight.  In that case, waits (up to
+     * coalescingTimeoutMillis) for that request to finish and uses the
+     * response it cached.  Only responses that were shareable the last time
+     * are coalesced, since otherwise the followers could not use the result.
+     * Callers on the render thread should try {@link #joinInFlightFetch(CacheTuple, String)}
+     * first, so followers don't prepare requests they won't send.
+     */
+    private FetchResult fetchContentCoalesced(final ServiceRequest serviceRequest, final RenderResponse res) {
+
+        final CacheTuple publicCacheTuple = serviceRequest.getPublicCacheTuple();
+        if (!shareableCacheTuples.contains(publicCacheTuple)) {
+            return fetchContent(serviceRequest, res);
+        }
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        final CountDownLatch leader = inFlightFetches.putIfAbsent(publicCacheTuple, latch);
+        if (leader == null) {
+            // We are the leader
+            try {
+                return fetchContent(serviceRequest, res);
+            } finally {
+                inFlightFetches.remove(publicCacheTuple, latch);
+                latch.countDown();
+            }
+        }
+
+        final FetchResult rslt = awaitLeader(leader, publicCacheTuple, serviceRequest.getServiceUrl());
+        if (rslt != null || Thread.currentThread().isInterrupted()) {
+            return rslt;
+        }
+
+        // The leader didn't produce a response we can use
+        return fetchContent(serviceRequest, res);
+
+    }
+
+    /**
+     * Waits for a request already in flight for the same public-scope
+     * response, if there is one, before this thread prepares a request of its
+     * own (which means signing and encrypting the data model).
+     *
+     * @return The response cached by the in-flight request, or
+     * <code>null</code> if there was none or it didn't produce a response we
+     * can use
+     */
+    private FetchResult joinInFlightFetch(final CacheTuple publicCacheTuple, final String serviceUrl) {
+        if (!shareableCacheTuples.contains(publicCacheTuple)) {
+            return null;
+        }
+        final CountDownLatch leader = inFlightFetches.get(publicCacheTuple);
+        return leader != null
+                ? awaitLeader(leader, publicCacheTuple, serviceUrl)
+                : null;
+    }
+
+    /**
+     * @return The fresh response cached by the leader, or <code>null</code>
+     * if it didn't produce one in time (or this thread was interrupted)
+     */
+    private FetchResult awaitLeader(final CountDownLatch leader, final CacheTuple publicCacheTuple,
+            final String serviceUrl) {
+        logger.debug("Waiting for the in-flight request to serviceUrl '{}'", serviceUrl);
+        try {
+            if (leader.await(coalescingTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                final Element element = responseCache.get(publicCacheTuple);
+                if (element != null) {
+                    final ResponseWrapper responseValue = (ResponseWrapper) element.getObjectValue();
+                    if (responseValue.isFresh()) {
+                        return new FetchResult(HttpStatus.SC_OK, responseValue, false);
+                    }
+                }
+            } else {
+                logger.debug("Timed out waiting for the in-flight request to serviceUrl '{}'", serviceUrl);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+
+    /**
+     * Called during the RENDER_HEADERS phase.  Prepares the request on the
+     * render thread and then sends it on the fetchExecutor.
+     */
+    private void startFetchIfNeeded(final RenderRequest req, final RenderResponse res,
+            final PortletPreferences prefs, final String serviceUrl) {
+
+        final ResponseWrapper cachedResponse = fetchContentFromCacheIfAvailable(req, serviceUrl);
+        if (cachedResponse != null && cachedResponse.isFresh()) {
+            // Nothing to do
+            return;
+        }
+        if (cachedResponse != null && cachedResponse.isStaleWhileRevalidate()) {
+            // The stale response will be used in RENDER_MARKUP;  start refreshing it now
+            refreshInBackground(req, res, prefs, serviceUrl, cachedResponse);
+            return;
+        }
+
+        if (getCircuitBreaker(serviceUrl).getState() == CircuitBreaker.State.OPEN) {
+            // RENDER_MARKUP will fail fast
+            return;
+        }
+
+        final String pendingFetchKey = getPendingFetchKey(req);
+        if (pendingFetchKey == null) {
+            // RENDER_MARKUP couldn't find the fetch;  it will invoke the soffit itself
+            return;
+        }
+
+        final CacheTuple publicCacheTuple = createCacheTuple(req, serviceUrl, true);
+        if (shareableCacheTuples.contains(publicCacheTuple) && inFlightFetches.containsKey(publicCacheTuple)) {
+            // RENDER_MARKUP will wait for it without preparing a request of its own
+            return;
+        }
+
+        purgeAbandonedFetches();
+
+        final ServiceRequest serviceRequest = prepareRequest(req, res, prefs, serviceUrl, cachedResponse);
+        try {
+            final Future<FetchResult> future = fetchExecutor.submit(new Callable<FetchResult>() {
+                @Override
+                public FetchResult call() {
+                    return fetchContentCoalesced(serviceRequest, null);
+                }
+            });
+            final PendingFetch previous = pendingFetches.put(pendingFetchKey,
+                    new PendingFetch(future, serviceRequest.getTimeoutMillis()));
+            if (previous != null) {
+                previous.cancel();
+            }
+            logger.debug("Started fetch during RENDER_HEADERS for serviceUrl '{}'", serviceUrl);
+        } catch (RejectedExecutionException e) {
+            // We will fetch synchronously during RENDER_MARKUP instead
+            logger.warn("The fetchExecutor is saturated;  serviceUrl '{}' will be fetched at render time", serviceUrl);
+        }
+
+    }
+
+    /**
+     * Revalidates (or replaces) a stale response on the refreshExecutor.  At
+     * most one refresh per cached response is in progress at a time.
+     */
+    private void refreshInBackground(final RenderRequest req, final RenderResponse res,
+            final PortletPreferences prefs, final String serviceUrl, final ResponseWrapper cachedResponse) {
+
+        if (!refreshesInProgress.add(cachedResponse)) {
+            logger.debug("A refresh is already in progress for serviceUrl '{}'", serviceUrl);
+            return;
+        }
+
+        try {
+            final ServiceRequest serviceRequest = prepareRequest(req, res, prefs, serviceUrl, cachedResponse);
+            refreshExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        // Caches the outcome, if appropriate
+                        fetchContent(serviceRequest, null);
+                    } finally {
+                        refreshesInProgress.remove(cachedResponse);
+                    }
+                }
+            });
+            logger.debug("Started background refresh for serviceUrl '{}'", serviceUrl);
+        } catch (RuntimeException e) {
+            // Including RejectedExecutionException;  a later request will try again
+            refreshesInProgress.remove(cachedResponse);
+            logger.warn("Failed to start background refresh for serviceUrl '{}'", serviceUrl, e);
+        }
+
+    }
+
+    private FetchResult awaitFetch(final PendingFetch pendingFetch, final String serviceUrl) {
+        FetchResult rslt = null;
+        try {
+            rslt = pendingFetch.getFuture().get(pendingFetch.getMaxWaitMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            pendingFetch.cancel();
+        } catch (ExecutionException e) {
+            logger.error("Failed to invoke serviceUrl '{}'", serviceUrl, e.getCause());
+        } catch (TimeoutException e) {
+            logger.error("Timed out waiting for serviceUrl '{}'", serviceUrl, e);
+            pendingFetch.cancel();
+        }
+        return rslt;
+    }
+
+    /**
+     * @return A key that identifies this window in this request across both
+     * render phases, or <code>null</code> if there's no session (which we
+     * won't create for this purpose);  the window ID alone isn't enough,
+     * since users without sessions (e.g. guests) may share a layout
+     */
+    private String getPendingFetchKey(final RenderRequest req) {
+        final PortletSession portletSession = req.getPortletSession(false);
+        return portletSession != null
+                ? portletSession.getId() + "|" + req.getWindowID()
+                : null;
+    }
+
+    /**
+     * Pending fetches are normally claimed during RENDER_MARKUP, but the
+     * portal may skip that phase (e.g. if the request fails).
+     */
+    private void purgeAbandonedFetches() {
+        final long now = System.currentTimeMillis();
+        for (Map.Entry<String,PendingFetch> y : pendingFetches.entrySet()) {
+            final PendingFetch pendingFetch = y.getValue();
+            if (pendingFetch.getCreated() + pendingFetch.getMaxWaitMillis() < now
+                    && pendingFetches.remove(y.getKey(), pendingFetch)) {
+                y.getValue().cancel();
+            }
+        }
+    }
+
+    /**
+     * @return A key for the cache, or <code>null</code> for private scope when
+     * the user is anonymous
+     */
+    private CacheTuple createCacheTuple(final RenderRequest req, final String serviceUrl, final boolean publicScope) {
+        if (publicScope) {
+            return new CacheTuple(serviceUrl, req.getPortletMode().toString(),
+                    req.getWindowState().toString());
+        }
+        // Don't use private-scope caching for anonymous users
+        return req.getRemoteUser() != null
+                ? new CacheTuple(serviceUrl, req.getPortletMode().toString(),
+                        req.getWindowState().toString(), req.getRemoteUser())
+                : null;
+    }
+
     private ResponseWrapper fetchContentFromCacheIfAvailable(final RenderRequest req, final String serviceUrl) {
 
         ResponseWrapper rslt = null;  // default
 
         final List<CacheTuple> cacheKeysToTry = new ArrayList<>();
-        // Don't use private-scope caching for anonymous users
-        if (req.getRemoteUser() != null) {
-            cacheKeysToTry.add(
-                    // Private-scope cache key
-                    new CacheTuple(serviceUrl, req.getPortletMode().toString(),
-                            req.getWindowState().toString(), req.getRemoteUser())
-            );
-        }
-        cacheKeysToTry.add(
-                // Public-scope cache key
-                new CacheTuple(serviceUrl, req.getPortletMode().toString(),
-                        req.getWindowState().toString())
-        );
+        // Private-scope cache key (if the user isn't anonymous)
+        final CacheTuple privateCacheTuple = createCacheTuple(req, serviceUrl, false);
+        if (privateCacheTuple != null) {
+            cacheKeysToTry.add(privateCacheTuple);
+        }
+        // Public-scope cache key
+        cacheKeysToTry.add(createCacheTuple(req, serviceUrl, true));
 
         for (CacheTuple key : cacheKeysToTry) {
             final Element cacheElement = this.responseCache.get(key);
             if (cacheElement != null) {
                 rslt = (ResponseWrapper) cacheElement.getObjectValue();
+                if (rslt.isFresh()) {
+                    connectorMetrics.recordCacheHit(key.isPublicScope());
+                } else {
+                    connectorMetrics.recordStaleCacheHit();
+                }
                 break;
             }
         }
+        if (rslt == null) {
+            connectorMetrics.recordCacheMiss();
+        }
 
         return rslt;
 
     }
 
+    /**
+     * Reads the body of the response and caches it if the remote soffit allows.
+     * If a {@link RenderResponse} is provided, the body is copied to it as it
+     * arrives (rather than after it has been read completely).
+     *
+     * @return The body, or <code>null</code> if it was written to the
+     * RenderResponse and not retained for the cache
+     * @throws IOException If the body could not be read completely
+     */
     private ResponseWrapper extractResponseAndCacheIfAppropriate(final HttpResponse httpResponse,
-            final RenderRequest req, final String serviceUrl) {
+            final ServiceRequest serviceRequest, final RenderResponse res, final long requestTime,
+            final long responseTime) throws IOException {
+
+        // Decide (based on headers) whether the response may be cached before reading it
+        final CacheDecision cacheDecision = decideCaching(httpResponse, serviceRequest, requestTime, responseTime);
 
         // Extract
         final HttpEntity entity = httpResponse.getEntity();
-        ResponseWrapper rslt;
-        try {
-            rslt = new ResponseWrapper(IOUtils.toByteArray(entity.getContent()));
-        } catch (UnsupportedOperationException | IOException e) {
-            throw new RuntimeException("Failed to read the response", e);
+        final SoffitMetrics metrics = getSoffitMetrics(serviceRequest.getServiceUrl());
+        byte[] bytes = null;
+        if (res == null) {
+            bytes = IOUtils.toByteArray(entity.getContent());
+            metrics.recordBytesReceived(bytes.length);
+        } else if (cacheDecision != null) {
+            // Stream to the portlet and tee into a buffer for the cache
+            final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            IOUtils.copy(entity.getContent(), new TeeOutputStream(res.getPortletOutputStream(), buffer));
+            bytes = buffer.toByteArray();
+            metrics.recordBytesReceived(bytes.length);
+        } else {
+            metrics.recordBytesReceived(IOUtils.copyLarge(entity.getContent(), res.getPortletOutputStream()));
+        }
+
+        if (bytes == null) {
+            return null;
         }
 
+        final ResponseWrapper rslt = createResponseWrapper(bytes, httpResponse, cacheDecision, responseTime, null);
+
         // Cache the response if indicated by the remote service
-        final Header cacheControlHeader = httpResponse.getFirstHeader(Headers.CACHE_CONTROL.getName());
-        if (cacheControlHeader != null) {
-            final String cacheControlValue = cacheControlHeader.getValue();
-            logger.debug("Soffit with serviceUrl='{}' specified cache-control header value='{}'",
-                                                                serviceUrl, cacheControlValue);
-            if (cacheControlHeader != null) {
-                switch (cacheControlValue) {
-                    case SoffitRendererController.CACHE_CONTROL_NOCACHE:
-                        /*
-                         * This value means we can use validation caching based on
-                         * Last-Modified or ETag.  Those things aren't implemented
-                         * yet, so fall through to the handling for 'no-store'.
-                         */
-                    case SoffitRendererController.CACHE_CONTROL_NOSTORE:
-                        /*
-                         * The value 'no-store' is the default.
-                         */
-                        logger.debug("Not caching response due to CacheControl directive of '{}'", cacheControlValue);
-                        break;
-                    default:
-                        /*
-                         * Looks like we're using the expiration cache feature.
-                         */
-                        CacheTuple cacheTuple = null;
-                        // TODO:  Need to find a polished utility that parses a cache-control header, or write one
-                        final String[] tokens = cacheControlValue.split(",");
-                        // At present, we expect all valid values to be in the form '[public|private], max-age=300'
-                        if (tokens.length == 2) {
-                            final String maxAge = tokens[1].trim().substring("max-age=".length());
-                            int timeToLive = Integer.parseInt(maxAge);
-                            if ("private".equals(tokens[0].trim())) {
-                                cacheTuple = new CacheTuple(serviceUrl, req.getPortletMode().toString(),
-                                        req.getWindowState().toString(), req.getRemoteUser());
-                            } else if ("public".equals(tokens[0].trim())) {
-                                cacheTuple = new CacheTuple(serviceUrl, req.getPortletMode().toString(),
-                                        req.getWindowState().toString());
-                            }
-                            logger.debug("Produced cacheTuple='{}' for cacheControlValue='{}'", cacheTuple, cacheControlValue);
-                            if (cacheTuple != null) {
-                                final Element element = new Element(cacheTuple, rslt);
-                                element.setTimeToLive(timeToLive);
-                                responseCache.put(element);
-                            } else {
-                                logger.warn("The remote soffit specified cacheControlValue='{}', "
-                                        + "but SoffitConnectorController failed to generate a cacheTuple");
-                            }
-                        }
-                        break;
-                }
-            }
+        cacheResponse(rslt, cacheDecision);
 
-        }
+        return rslt;
+
+    }
 
+    /**
+     * Handles a 304 (Not Modified) response:  the cached bytes are current, so
+     * we cache them again with the freshness and validators of this response.
+     */
+    private ResponseWrapper revalidateCachedResponse(final HttpResponse httpResponse,
+            final ServiceRequest serviceRequest, final long requestTime, final long responseTime) {
+
+        final ResponseWrapper cachedResponse = serviceRequest.getCachedResponse();
+        final CacheDecision cacheDecision = decideCaching(httpResponse, serviceRequest, requestTime, responseTime);
+        final ResponseWrapper rslt = createResponseWrapper(cachedResponse.getBytes(), httpResponse,
+                cacheDecision, responseTime, cachedResponse);
+        cacheResponse(rslt, cacheDecision);
         return rslt;
 
     }
 
+    /**
+     * Determines whether (and for how long) the response may be cached, based
+     * on its headers.
+     *
+     * @return A CacheDecision, or <code>null</code> if the response may not be cached
+     */
+    private CacheDecision decideCaching(final HttpResponse httpResponse, final ServiceRequest serviceRequest,
+            final long requestTime, final long responseTime) {
+
+        final String serviceUrl = serviceRequest.getServiceUrl();
+
+        final CachePolicy cachePolicy = CachePolicy.evaluate(httpResponse, requestTime, responseTime);
+        logger.debug("Soffit with serviceUrl='{}' produced cachePolicy={}", serviceUrl, cachePolicy);
+
+        if (!cachePolicy.isShareable() || !cachePolicy.isStorable()) {
+            shareableCacheTuples.remove(serviceRequest.getPublicCacheTuple());
+        }
+
+        if (!cachePolicy.isStorable()) {
+            logger.debug("Not caching response for serviceUrl='{}'", serviceUrl);
+            return null;
+        }
+
+        final CacheTuple cacheTuple = cachePolicy.isShareable()
+                ? serviceRequest.getPublicCacheTuple()
+                : serviceRequest.getPrivateCacheTuple();
+        logger.debug("Produced cacheTuple='{}' for serviceUrl='{}'", cacheTuple, serviceUrl);
+        if (cacheTuple == null) {
+            // Private scope for an anonymous user
+            logger.debug("Not caching private-scope response for serviceUrl='{}' because the user is anonymous", serviceUrl);
+            return null;
+        }
+
+        /*
+         * Responses with validators remain in the cache after they go stale,
+         * so they can be revalidated with a conditional request;  responses
+         * with stale-while-revalidate or stale-if-error remain as long as
+         * they may be used.
+         */
+        final int freshSeconds = cachePolicy.getFreshSeconds();
+        final long staleSeconds = Math.max(
+                Math.max(cachePolicy.hasValidators() ? validatedResponseTimeToLive : 0,
+                        cachePolicy.getStaleWhileRevalidateSeconds()),
+                cachePolicy.getStaleIfErrorSeconds());
+        final int timeToLive = (int) Math.min(freshSeconds + staleSeconds, Integer.MAX_VALUE);
+        if (timeToLive <= 0) {
+            // Already stale (e.g. because of its Age);  a TTL of 0 would mean 'eternal'
+            return null;
+        }
+
+        return new CacheDecision(cacheTuple, cachePolicy, timeToLive);
+
+    }
+
+    /**
+     * @param previous The cached response being revalidated, if any;  its
+     * validators are retained unless the new response replaces them
+     */
+    private ResponseWrapper createResponseWrapper(final byte[] bytes, final HttpResponse httpResponse,
+            final CacheDecision cacheDecision, final long responseTime, final ResponseWrapper previous) {
+
+        final Header etagHeader = httpResponse.getFirstHeader(Headers.ETAG.getName());
+        final Header lastModifiedHeader = httpResponse.getFirstHeader(Headers.LAST_MODIFIED.getName());
+        final String etag = etagHeader != null
+                ? etagHeader.getValue()
+                : previous != null ? previous.getEtag() : null;
+        final String lastModified = lastModifiedHeader != null
+                ? lastModifiedHeader.getValue()
+                : previous != null ? previous.getLastModified() : null;
+        long freshUntil = 0L;
+        long staleWhileRevalidateUntil = 0L;
+        long staleIfErrorUntil = 0L;
+        if (cacheDecision != null) {
+            final CachePolicy cachePolicy = cacheDecision.getCachePolicy();
+            freshUntil = responseTime + (cachePolicy.getFreshSeconds() * 1000L);
+            staleWhileRevalidateUntil = freshUntil + (cachePolicy.getStaleWhileRevalidateSeconds() * 1000L);
+            staleIfErrorUntil = freshUntil + (cachePolicy.getStaleIfErrorSeconds() * 1000L);
+        }
+        return new ResponseWrapper(bytes, etag, lastModified, freshUntil, staleWhileRevalidateUntil, staleIfErrorUntil);
+
+    }
+
+    private void cacheResponse(final ResponseWrapper responseWrapper, final CacheDecision cacheDecision) {
+        if (cacheDecision != null) {
+            final Element element = new Element(cacheDecision.getCacheTuple(), responseWrapper);
+            element.setTimeToLive(cacheDecision.getTimeToLive());
+            responseCache.put(element);
+            if (cacheDecision.getCacheTuple().isPublicScope()) {
+                shareableCacheTuples.add(cacheDecision.getCacheTuple());
+            }
+        }
+    }
+
     /*
      * Nested Types
      */
@@ -311,6 +1397,10 @@ public class SoffitConnectorController implements ApplicationContextAware {
             this.publicScope = false;
         }
 
+        public boolean isPublicScope() {
+            return publicScope;
+        }
+
         @Override
         public int hashCode() {
             final int prime = 31;
@@ -365,16 +1455,242 @@ public class SoffitConnectorController implements ApplicationContextAware {
 
     }
 
+    private static final class DaemonThreadFactory implements ThreadFactory {
+        private final String namePrefix;
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        public DaemonThreadFactory(String namePrefix) {
+            this.namePrefix = namePrefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            final Thread rslt = new Thread(r, namePrefix + threadNumber.incrementAndGet());
+            rslt.setDaemon(true);
+            return rslt;
+        }
+    }
+
+    /**
+     * Everything needed to invoke the remote soffit (and cache the response)
+     * without access to the portlet request.
+     */
+    private static final class ServiceRequest {
+        private final String serviceUrl;
+        private final HttpGet method;
+        private final int timeoutMillis;
+        private final CacheTuple publicCacheTuple;
+        private final CacheTuple privateCacheTuple;
+        private final ResponseWrapper cachedResponse;
+
+        public ServiceRequest(String serviceUrl, HttpGet method, int timeoutMillis, CacheTuple publicCacheTuple,
+                CacheTuple privateCacheTuple, ResponseWrapper cachedResponse) {
+            this.serviceUrl = serviceUrl;
+            this.method = method;
+            this.timeoutMillis = timeoutMillis;
+            this.publicCacheTuple = publicCacheTuple;
+            this.privateCacheTuple = privateCacheTuple;
+            this.cachedResponse = cachedResponse;
+        }
+
+        public String getServiceUrl() {
+            return serviceUrl;
+        }
+
+        public HttpGet getMethod() {
+            return method;
+        }
+
+        public int getTimeoutMillis() {
+            return timeoutMillis;
+        }
+
+        public CacheTuple getPublicCacheTuple() {
+            return publicCacheTuple;
+        }
+
+        /**
+         * @return The private-scope key, or <code>null</code> if the user is anonymous
+         */
+        public CacheTuple getPrivateCacheTuple() {
+            return privateCacheTuple;
+        }
+
+        /**
+         * @return A stale response from the cache that may be revalidated, or <code>null</code>
+         */
+        public ResponseWrapper getCachedResponse() {
+            return cachedResponse;
+        }
+    }
+
+    /**
+     * How (and for how long) a response will be cached.
+     */
+    private static final class CacheDecision {
+        private final CacheTuple cacheTuple;
+        private final CachePolicy cachePolicy;
+        private final int timeToLive;
+
+        public CacheDecision(CacheTuple cacheTuple, CachePolicy cachePolicy, int timeToLive) {
+            this.cacheTuple = cacheTuple;
+            this.cachePolicy = cachePolicy;
+            this.timeToLive = timeToLive;
+        }
+
+        public CacheTuple getCacheTuple() {
+            return cacheTuple;
+        }
+
+        public CachePolicy getCachePolicy() {
+            return cachePolicy;
+        }
+
+        /**
+         * Seconds the response remains in the cache.
+         */
+        public int getTimeToLive() {
+            return timeToLive;
+        }
+    }
+
+    /**
+     * The outcome of invoking a remote soffit.  The response is present only
+     * when the statusCode is 200 and it was not streamed to the portlet
+     * (unless it was also cached).
+     */
+    private static final class FetchResult {
+        private final int statusCode;
+        private final ResponseWrapper response;
+        private final boolean written;
+
+        public FetchResult(int statusCode, ResponseWrapper response, boolean written) {
+            this.statusCode = statusCode;
+            this.response = response;
+            this.written = written;
+        }
+
+        /**
+         * Indicates the response has already been written to the portlet.
+         */
+        public boolean isWritten() {
+            return written;
+        }
+
+        public int getStatusCode() {
+            return statusCode;
+        }
+
+        public ResponseWrapper getResponse() {
+            return response;
+        }
+    }
+
+    /**
+     * A fetch started during RENDER_HEADERS that has not yet been claimed
+     * during RENDER_MARKUP.
+     */
+    private static final class PendingFetch {
+        private final Future<FetchResult> future;
+        private final int timeoutMillis;
+        private final long created = System.currentTimeMillis();
+
+        public PendingFetch(Future<FetchResult> future, int timeoutMillis) {
+            this.future = future;
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        public Future<FetchResult> getFuture() {
+            return future;
+        }
+
+        public long getCreated() {
+            return created;
+        }
+
+        /**
+         * Allows for both the connection request and the socket timeouts.
+         */
+        public long getMaxWaitMillis() {
+            return 2L * timeoutMillis;
+        }
+
+        public void cancel() {
+            future.cancel(true);
+        }
+
+        /**
+         * The result isn't needed;  the request isn't sent if it hasn't
+         * started yet, otherwise it completes (and caches the response, if
+         * appropriate) in the background.
+         */
+        public void discard() {
+            future.cancel(false);
+        }
+    }
+
     public static final class ResponseWrapper {
         private final byte[] bytes;
+        private final String etag;
+        private final String lastModified;
+        private final long freshUntil;
+        private final long staleWhileRevalidateUntil;
+        private final long staleIfErrorUntil;
 
         public ResponseWrapper(byte[] bytes) {
+            this(bytes, null, null, Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE);
+        }
+
+        public ResponseWrapper(byte[] bytes, String etag, String lastModified, long freshUntil,
+                long staleWhileRevalidateUntil, long staleIfErrorUntil) {
             this.bytes = bytes;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.freshUntil = freshUntil;
+            this.staleWhileRevalidateUntil = staleWhileRevalidateUntil;
+            this.staleIfErrorUntil = staleIfErrorUntil;
         }
 
         public byte[] getBytes() {
             return bytes;
         }
+
+        /**
+         * Value of the <code>ETag</code> header, if any.
+         */
+        public String getEtag() {
+            return etag;
+        }
+
+        /**
+         * Value of the <code>Last-Modified</code> header, if any.
+         */
+        public String getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * Indicates the response may be used without revalidating it.
+         */
+        public boolean isFresh() {
+            return System.currentTimeMillis() < freshUntil;
+        }
+
+        /**
+         * Indicates the response is stale, but may be used while it is
+         * revalidated in the background.
+         */
+        public boolean isStaleWhileRevalidate() {
+            return System.currentTimeMillis() < staleWhileRevalidateUntil;
+        }
+
+        /**
+         * Indicates the response is stale, but may be used if a request to
+         * the remote soffit fails.
+         */
+        public boolean isStaleIfError() {
+            return System.currentTimeMillis() < staleIfErrorUntil;
+        }
     }
 
 }
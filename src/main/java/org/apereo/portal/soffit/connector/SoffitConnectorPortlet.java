@@ -0,0 +1,52 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apereo.portal.soffit.connector;
+
+import java.io.IOException;
+
+import javax.portlet.PortletException;
+import javax.portlet.RenderRequest;
+import javax.portlet.RenderResponse;
+
+import org.springframework.web.portlet.DispatcherPortlet;
+
+/**
+ * Use this class (instead of <code>DispatcherPortlet</code>) as the
+ * portlet-class of the Soffit Connector to allow it to participate in
+ * two-phase rendering.  <code>GenericPortlet</code> does not dispatch
+ * RENDER_HEADERS requests to handlers;  this class sends them to the
+ * {@link SoffitConnectorController}, which uses them to start fetching soffit
+ * content early.
+ *
+ * @author agent
+ */
+public class SoffitConnectorPortlet extends DispatcherPortlet {
+
+    @Override
+    protected void doHeaders(RenderRequest request, RenderResponse response) {
+        try {
+            doDispatch(request, response);
+        } catch (PortletException | IOException e) {
+            // Not fatal;  the content will be fetched during RENDER_MARKUP
+            logger.warn("Failed to dispatch the RENDER_HEADERS request", e);
+        }
+    }
+
+}
@@ -0,0 +1,104 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apereo.portal.soffit.connector;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apereo.portal.soffit.metrics.Histogram;
+
+/**
+ * Collects the metrics of the requests to one soffit.
+ *
+ * @since 5.0
+ * @author agent
+ */
+public final class SoffitMetrics implements SoffitMetricsMXBean {
+
+    private final CircuitBreaker circuitBreaker;
+    private final ConcurrencyLimiter concurrencyLimiter;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final Histogram latency = new Histogram();
+
+    public SoffitMetrics(CircuitBreaker circuitBreaker, ConcurrencyLimiter concurrencyLimiter) {
+        this.circuitBreaker = circuitBreaker;
+        this.concurrencyLimiter = concurrencyLimiter;
+    }
+
+    @Override
+    public long getRequests() {
+        return requests.get();
+    }
+
+    @Override
+    public long getFailures() {
+        return failures.get();
+    }
+
+    @Override
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    @Override
+    public Histogram getLatency() {
+        return latency;
+    }
+
+    @Override
+    public String getCircuitState() {
+        return circuitBreaker.getState().toString();
+    }
+
+    @Override
+    public int getConcurrencyLimit() {
+        return concurrencyLimiter.getLimit();
+    }
+
+    @Override
+    public int getInFlight() {
+        return concurrencyLimiter.getInFlight();
+    }
+
+    public void recordRequest(long nanos, boolean healthy) {
+        requests.incrementAndGet();
+        if (!healthy) {
+            failures.incrementAndGet();
+        }
+        latency.record(nanos);
+    }
+
+    public void recordRejected() {
+        rejected.incrementAndGet();
+    }
+
+    public void recordBytesReceived(long bytes) {
+        bytesReceived.addAndGet(bytes);
+    }
+
+}
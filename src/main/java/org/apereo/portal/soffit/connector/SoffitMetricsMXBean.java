@@ -0,0 +1,65 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apereo.portal.soffit.connector;
+
+import org.apereo.portal.soffit.metrics.Histogram;
+
+/**
+ * Metrics of the requests to one soffit (by service URL), published over JMX
+ * as <code>org.apereo.portal.soffit:type=Soffit,name="&lt;serviceUrl&gt;"</code>.
+ *
+ * @since 5.0
+ * @author agent
+ */
+public interface SoffitMetricsMXBean {
+
+    /**
+     * HTTP requests sent to the soffit.
+     */
+    long getRequests();
+
+    /**
+     * Requests that failed (server errors & I/O failures).
+     */
+    long getFailures();
+
+    /**
+     * Requests not sent because the circuit was open or the concurrency limit
+     * was reached.
+     */
+    long getRejected();
+
+    /**
+     * Bytes of content received from the soffit.
+     */
+    long getBytesReceived();
+
+    /**
+     * Time from sending each request until its response has been read.
+     */
+    Histogram getLatency();
+
+    String getCircuitState();
+
+    int getConcurrencyLimit();
+
+    int getInFlight();
+
+}
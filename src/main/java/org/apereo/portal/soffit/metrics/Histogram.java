@@ -0,0 +1,117 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apereo.portal.soffit.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of latencies.  Values are counted in buckets whose
+ * bounds are powers of 2 (in microseconds), so percentiles are approximate
+ * (within a factor of 2) but recording a value is cheap enough for any code
+ * path.  Exposed over JMX as composite data (through its getters) by the
+ * MXBeans that contain it.
+ *
+ * @since 5.0
+ * @author agent
+ */
+public final class Histogram {
+
+    /**
+     * Bucket i counts values (in microseconds) less than 2^i;  the last bucket
+     * counts everything larger.
+     */
+    private static final int BUCKETS = 40;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalMicros = new AtomicLong();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    /**
+     * Records a latency measured with <code>System.nanoTime()</code>.
+     */
+    public void record(long nanos) {
+        final long micros = Math.max(0L, TimeUnit.NANOSECONDS.toMicros(nanos));
+        final int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        buckets.incrementAndGet(bucket);
+        count.incrementAndGet();
+        totalMicros.addAndGet(micros);
+        long max = maxMicros.get();
+        while (micros > max && !maxMicros.compareAndSet(max, micros)) {
+            max = maxMicros.get();
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public double getMeanMillis() {
+        final long n = count.get();
+        return n != 0L ? toMillis(totalMicros.get()) / n : 0.0;
+    }
+
+    public double getMaxMillis() {
+        return toMillis(maxMicros.get());
+    }
+
+    public double getMedianMillis() {
+        return getPercentileMillis(0.5);
+    }
+
+    public double get90thPercentileMillis() {
+        return getPercentileMillis(0.9);
+    }
+
+    public double get99thPercentileMillis() {
+        return getPercentileMillis(0.99);
+    }
+
+    /*
+     * Implementation
+     */
+
+    /**
+     * @return The upper bound of the bucket that contains the specified
+     * percentile (or the max, if it is lower)
+     */
+    private double getPercentileMillis(double percentile) {
+        final long n = count.get();
+        if (n == 0L) {
+            return 0.0;
+        }
+        final long rank = (long) Math.ceil(percentile * n);
+        long seen = 0L;
+        for (int i = 0; i < BUCKETS - 1; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return Math.min(toMillis(1L << i), getMaxMillis());
+            }
+        }
+        return getMaxMillis();
+    }
+
+    private static double toMillis(long micros) {
+        return micros / 1000.0;
+    }
+
+}
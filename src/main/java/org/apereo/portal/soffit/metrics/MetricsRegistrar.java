@@ -0,0 +1,103 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apereo.portal.soffit.metrics;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registers the metrics of Soffit components with the platform MBeanServer,
+ * in the <code>org.apereo.portal.soffit</code> domain.  Several applications
+ * in the same JVM (e.g. the portal and a soffit in the same Tomcat) may
+ * register the same component;  subsequent registrations are distinguished
+ * with an <code>instance</code> key.  Failures are logged, never thrown;
+ * metrics are not worth failing over.
+ *
+ * @since 5.0
+ * @author agent
+ */
+public final class MetricsRegistrar {
+
+    public static final String DOMAIN = "org.apereo.portal.soffit";
+
+    private static final int MAX_INSTANCES = 100;
+
+    private static final Logger logger = LoggerFactory.getLogger(MetricsRegistrar.class);
+
+    /**
+     * @param type Kind of component, e.g. 'Connector'
+     * @param name Distinguishes components of the same type (may be
+     * <code>null</code>)
+     * @return The name under which the MBean was registered, or
+     * <code>null</code> if it wasn't
+     */
+    public static ObjectName register(String type, String name, Object mbean) {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final StringBuilder baseName = new StringBuilder().append(DOMAIN).append(":type=").append(type);
+        if (name != null) {
+            baseName.append(",name=").append(ObjectName.quote(name));
+        }
+        try {
+            for (int instance = 1; instance <= MAX_INSTANCES; instance++) {
+                final ObjectName rslt = new ObjectName(instance == 1
+                        ? baseName.toString()
+                        : baseName + ",instance=" + instance);
+                try {
+                    server.registerMBean(mbean, rslt);
+                    logger.debug("Registered metrics MBean {}", rslt);
+                    return rslt;
+                } catch (InstanceAlreadyExistsException e) {
+                    // Try the next instance
+                }
+            }
+            logger.warn("Too many instances of metrics MBean {};  not registering another", baseName);
+        } catch (JMException e) {
+            logger.warn("Failed to register metrics MBean {}", baseName, e);
+        }
+        return null;
+    }
+
+    /**
+     * Unregisters an MBean registered with {@link #register(String, String, Object)};
+     * does nothing if the name is <code>null</code>.
+     */
+    public static void unregister(ObjectName objectName) {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            logger.warn("Failed to unregister metrics MBean {}", objectName, e);
+        }
+    }
+
+    private MetricsRegistrar() {
+        // Static methods only
+    }
+
+}
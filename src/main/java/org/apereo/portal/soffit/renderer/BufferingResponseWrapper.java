@@ -0,0 +1,281 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apereo.portal.soffit.renderer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apereo.portal.soffit.Headers;
+
+/**
+ * Buffers the body of a soffit response, so that headers (such as the
+ * <code>ETag</code> and those of the {@link CacheDirectives}) can still be
+ * set once it has been rendered, and updates a digest with each byte as it
+ * arrives.  A single wrapper serves all the renderer's filters on a request:
+ * the outermost creates it and writes the body to the response;  the others
+ * use it as they find it.<p>
+ *
+ * Whether to buffer is decided when the body is first written, based on the
+ * caching directives at that time;  bodies that may not be stored can't be
+ * revalidated or cached, so they are passed straight through.
+ *
+ * @author agent
+ */
+final class BufferingResponseWrapper extends HttpServletResponseWrapper {
+
+    private static final String ATTRIBUTE = BufferingResponseWrapper.class.getName();
+    private static final String DIGEST_ALGORITHM = "MD5";
+
+    private final HttpServletRequest req;
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private final MessageDigest digest;
+    private final ServletOutputStream outputStream;
+    private PrintWriter writer;
+    private Boolean buffered = null;
+    private long bodySize = 0L;
+    private int status = HttpServletResponse.SC_OK;
+    private String cacheControl = null;
+    private long lastModified = -1L;
+    private String eTag = null;
+
+    /**
+     * @return The wrapper a filter further out created for this request, or
+     * <code>null</code> if there isn't one
+     */
+    public static BufferingResponseWrapper get(HttpServletRequest req) {
+        return (BufferingResponseWrapper) req.getAttribute(ATTRIBUTE);
+    }
+
+    /**
+     * Wraps the response for the remaining filters on this request;  the
+     * caller is responsible for {@link #writeBodyTo(HttpServletResponse)}
+     * and {@link #release()}.
+     */
+    public static BufferingResponseWrapper create(HttpServletRequest req, HttpServletResponse res) {
+        final BufferingResponseWrapper rslt = new BufferingResponseWrapper(req, res);
+        req.setAttribute(ATTRIBUTE, rslt);
+        return rslt;
+    }
+
+    private BufferingResponseWrapper(HttpServletRequest req, HttpServletResponse res) {
+        super(res);
+        this.req = req;
+        try {
+            digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Digest algorithm not available:  " + DIGEST_ALGORITHM, e);
+        }
+        outputStream = new ServletOutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                if (isBuffered()) {
+                    buffer.write(b);
+                    digest.update((byte) b);
+                } else {
+                    getResponse().getOutputStream().write(b);
+                }
+                ++bodySize;
+            }
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                if (isBuffered()) {
+                    buffer.write(b, off, len);
+                    digest.update(b, off, len);
+                } else {
+                    getResponse().getOutputStream().write(b, off, len);
+                }
+                bodySize += len;
+            }
+            @Override
+            public void flush() throws IOException {
+                if (!isBuffered()) {
+                    getResponse().getOutputStream().flush();
+                }
+            }
+        };
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+        if (writer == null) {
+            writer = new PrintWriter(new OutputStreamWriter(outputStream, getCharacterEncoding()));
+        }
+        return writer;
+    }
+
+    @Override
+    public void setContentLength(int len) {
+        if (!isBuffered()) {
+            super.setContentLength(len);
+        }
+        // Else we will set it ourselves
+    }
+
+    @Override
+    public void flushBuffer() throws IOException {
+        flushWriter();
+        if (!isBuffered()) {
+            super.flushBuffer();
+        }
+        // Else don't commit the response early
+    }
+
+    @Override
+    public void setStatus(int sc) {
+        super.setStatus(sc);
+        status = sc;
+    }
+
+    @SuppressWarnings("deprecation")
+    @Override
+    public void setStatus(int sc, String sm) {
+        super.setStatus(sc, sm);
+        status = sc;
+    }
+
+    @Override
+    public void sendError(int sc) throws IOException {
+        super.sendError(sc);
+        status = sc;
+    }
+
+    @Override
+    public void sendError(int sc, String msg) throws IOException {
+        super.sendError(sc, msg);
+        status = sc;
+    }
+
+    @Override
+    public void sendRedirect(String location) throws IOException {
+        super.sendRedirect(location);
+        status = HttpServletResponse.SC_MOVED_TEMPORARILY;
+    }
+
+    @Override
+    public void setDateHeader(String name, long date) {
+        super.setDateHeader(name, date);
+        if (Headers.LAST_MODIFIED.getName().equalsIgnoreCase(name)) {
+            lastModified = date;
+        }
+    }
+
+    @Override
+    public void setHeader(String name, String value) {
+        super.setHeader(name, value);
+        if (Headers.ETAG.getName().equalsIgnoreCase(name)) {
+            eTag = value;
+        } else if (Headers.CACHE_CONTROL.getName().equalsIgnoreCase(name)) {
+            cacheControl = value;
+        }
+    }
+
+    /**
+     * @return True if the body is (or will be) buffered;  decides, if that
+     * hasn't happened yet
+     */
+    public boolean isBuffered() {
+        if (buffered == null) {
+            // Soffits may have changed the policy as they render
+            final CacheDirectives cacheDirectives = CacheDirectives.get(req);
+            final String value = cacheDirectives != null
+                    ? cacheDirectives.getCacheControl()
+                    : cacheControl;
+            buffered = !StringUtils.containsIgnoreCase(value, SoffitRendererController.CACHE_CONTROL_NOSTORE);
+            if (!buffered && cacheDirectives != null) {
+                // Last chance, before the response is committed
+                cacheDirectives.applyTo(this);
+            }
+        }
+        return buffered;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public String getETag() {
+        return eTag;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * @return The digest of the buffered body
+     */
+    public byte[] getDigest() {
+        return digest.digest();
+    }
+
+    public byte[] getBody() {
+        return buffer.toByteArray();
+    }
+
+    /**
+     * @return The number of bytes written, whether buffered or not
+     */
+    public long getBodySize() {
+        return bodySize;
+    }
+
+    /**
+     * Drops the buffered body, e.g. for a 304 (Not Modified) response.
+     */
+    public void discardBody() {
+        buffer.reset();
+    }
+
+    public void flushWriter() {
+        if (writer != null) {
+            writer.flush();
+        }
+    }
+
+    public void writeBodyTo(HttpServletResponse res) throws IOException {
+        if (buffer.size() > 0 && !res.isCommitted()) {
+            res.setContentLength(buffer.size());
+            buffer.writeTo(res.getOutputStream());
+        }
+    }
+
+    /**
+     * Stops offering this wrapper to filters on this request.
+     */
+    public void release() {
+        req.removeAttribute(ATTRIBUTE);
+    }
+
+}
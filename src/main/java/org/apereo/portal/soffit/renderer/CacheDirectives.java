@@ -0,0 +1,230 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apereo.portal.soffit.renderer;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apereo.portal.soffit.Headers;
+import org.apereo.portal.soffit.renderer.CachePolicyRegistry.CachePolicy;
+
+/**
+ * Caching directives for a single response, available to soffit views (as
+ * the <code>cacheDirectives</code> model attribute) and controllers (through
+ * {@link #get(HttpServletRequest)}).  They start out matching the cache
+ * policy of the module, mode & window state, and may be changed while the
+ * response is rendered, e.g. to prevent caching an error message:
+ *
+ * <pre>
+ * &lt;c:set target="${cacheDirectives}" property="noStore" value="true" /&gt;
+ * </pre>
+ *
+ * The {@link OutputCacheFilter} applies them to the response once it has
+ * been rendered.  Not thread-safe (like the request it belongs to).
+ *
+ * @since 5.0
+ * @author agent
+ */
+public final class CacheDirectives {
+
+    private static final String ATTRIBUTE = CacheDirectives.class.getName();
+
+    private final String policyCacheControl;
+    private final boolean policyScopePublic;
+    private boolean modified = false;
+
+    private String scope;
+    private long maxAge;
+    private long staleWhileRevalidate = -1L;
+    private long staleIfError = -1L;
+    private boolean noStore;
+    private long lastModified = -1L;
+    private String eTag = null;
+
+    /**
+     * @return The directives for the current request, or <code>null</code>
+     * if it isn't a soffit request
+     */
+    public static CacheDirectives get(HttpServletRequest req) {
+        return (CacheDirectives) req.getAttribute(ATTRIBUTE);
+    }
+
+    /**
+     * Creates the directives for a request, starting from this policy.
+     */
+    static CacheDirectives create(CachePolicy cachePolicy, HttpServletRequest req) {
+        final CacheDirectives rslt = new CacheDirectives(cachePolicy);
+        req.setAttribute(ATTRIBUTE, rslt);
+        return rslt;
+    }
+
+    private CacheDirectives(CachePolicy cachePolicy) {
+        policyCacheControl = cachePolicy.getCacheControl();
+        policyScopePublic = cachePolicy.isScopePublic();
+        scope = cachePolicy.getScope();
+        maxAge = cachePolicy.getMaxAgeSeconds();
+        noStore = cachePolicy.getScope() == null;
+    }
+
+    /**
+     * @return Either 'public' (shared by all users) or 'private' (cached
+     * per-user);  <code>null</code> if caching isn't allowed
+     */
+    public String getScope() {
+        return scope;
+    }
+
+    public void setScope(String scope) {
+        this.scope = scope;
+        modified = true;
+    }
+
+    /**
+     * @return Seconds for which the response may be used without revalidation
+     * (0 means it must always be revalidated);  -1 if not specified
+     */
+    public long getMaxAge() {
+        return maxAge;
+    }
+
+    public void setMaxAge(long maxAge) {
+        this.maxAge = maxAge;
+        modified = true;
+    }
+
+    /**
+     * @return Seconds after the response expires for which it may be used
+     * while a new one is fetched;  -1 if not specified
+     */
+    public long getStaleWhileRevalidate() {
+        return staleWhileRevalidate;
+    }
+
+    public void setStaleWhileRevalidate(long staleWhileRevalidate) {
+        this.staleWhileRevalidate = staleWhileRevalidate;
+        modified = true;
+    }
+
+    /**
+     * @return Seconds after the response expires for which it may be used
+     * if the soffit fails;  -1 if not specified
+     */
+    public long getStaleIfError() {
+        return staleIfError;
+    }
+
+    public void setStaleIfError(long staleIfError) {
+        this.staleIfError = staleIfError;
+        modified = true;
+    }
+
+    /**
+     * @return True if the response must not be cached at all
+     */
+    public boolean isNoStore() {
+        return noStore;
+    }
+
+    public void setNoStore(boolean noStore) {
+        this.noStore = noStore;
+        modified = true;
+    }
+
+    /**
+     * @return When the content last changed (in milliseconds since the
+     * epoch), or -1 if not specified
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public void setLastModified(long lastModified) {
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * @return The entity tag of the content (including quotes), or
+     * <code>null</code> to use one calculated from the rendered output
+     */
+    public String getETag() {
+        return eTag;
+    }
+
+    public void setETag(String eTag) {
+        this.eTag = eTag;
+    }
+
+    /**
+     * @return The value of the <code>Cache-Control</code> header
+     */
+    public String getCacheControl() {
+
+        if (!modified) {
+            return policyCacheControl;
+        }
+
+        if (noStore || scope == null || maxAge < 0L) {
+            return SoffitRendererController.CACHE_CONTROL_NOSTORE;
+        }
+
+        final StringBuilder rslt = new StringBuilder().append(scope);
+        if (maxAge == 0L) {
+            // See CachePolicyRegistry
+            rslt.append(", ").append(SoffitRendererController.CACHE_CONTROL_NOCACHE);
+        } else {
+            rslt.append(", max-age=").append(maxAge);
+        }
+        if (staleWhileRevalidate >= 0L) {
+            rslt.append(", stale-while-revalidate=").append(staleWhileRevalidate);
+        }
+        if (staleIfError >= 0L) {
+            rslt.append(", stale-if-error=").append(staleIfError);
+        }
+        return rslt.toString();
+
+    }
+
+    /*
+     * Implementation
+     */
+
+    /**
+     * @return True if the rendered output may be retained by the
+     * {@link OutputCacheFilter} under a key chosen for the module's policy
+     */
+    boolean isOutputCacheable() {
+        if (noStore || scope == null || maxAge <= 0L) {
+            return false;
+        }
+        // A key for public output doesn't identify the user
+        return !policyScopePublic || SoffitRendererController.CACHE_SCOPE_PUBLIC.equalsIgnoreCase(scope.trim());
+    }
+
+    void applyTo(HttpServletResponse res) {
+        res.setHeader(Headers.CACHE_CONTROL.getName(), getCacheControl());
+        if (lastModified > 0L) {
+            res.setDateHeader(Headers.LAST_MODIFIED.getName(), lastModified);
+        }
+        if (eTag != null) {
+            res.setHeader(Headers.ETAG.getName(), eTag);
+        }
+    }
+
+}
@@ -0,0 +1,212 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apereo.portal.soffit.renderer;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.env.Environment;
+
+/**
+ * Cache policies of the modules in a {@link ViewIndex}, resolved once for
+ * every mode and window state.  The scope and the max-age are each taken from
+ * the most specific of the following properties that is defined:
+ *
+ * <ul>
+ *   <li><code>soffit.&lt;module&gt;.&lt;mode&gt;.&lt;windowState&gt;.cache.scope</code></li>
+ *   <li><code>soffit.&lt;module&gt;.&lt;mode&gt;.cache.scope</code></li>
+ *   <li><code>soffit.&lt;module&gt;.cache.scope</code></li>
+ * </ul>
+ *
+ * (and likewise for <code>max-age</code>).  A scope of <code>no-store</code>
+ * prevents caching, e.g. in a mode where caching would be unsafe.
+ *
+ * @author agent
+ */
+final class CachePolicyRegistry {
+
+    /**
+     * Window states defined by the Portlet Specification & uPortal;  policies
+     * are resolved for these (as well as for any that have views specifically).
+     */
+    private static final List<String> WINDOW_STATES = Arrays.asList("normal", "maximized", "minimized", "exclusive", "detached");
+
+    /**
+     * Cache policies by module, mode & window state.
+     */
+    private final Map<String,Map<String,Map<String,CachePolicy>>> policies;
+
+    private final Environment environment;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    public CachePolicyRegistry(ViewIndex viewIndex, Environment environment) {
+
+        this.environment = environment;
+
+        final Map<String,Map<String,Map<String,CachePolicy>>> policies = new HashMap<>();
+        for (String module : viewIndex.getModules()) {
+            final Set<String> windowStates = new HashSet<>(WINDOW_STATES);
+            windowStates.addAll(viewIndex.getWindowStates(module));
+            final Map<String,Map<String,CachePolicy>> byMode = new HashMap<>();
+            for (String mode : viewIndex.getModes(module)) {
+                final Map<String,CachePolicy> byWindowState = new HashMap<>();
+                for (String windowState : windowStates) {
+                    byWindowState.put(windowState, resolve(module, mode, windowState));
+                }
+                byMode.put(mode, Collections.unmodifiableMap(byWindowState));
+            }
+            policies.put(module, Collections.unmodifiableMap(byMode));
+        }
+        this.policies = Collections.unmodifiableMap(policies);
+
+    }
+
+    /**
+     * @return The cache policy for this module in this mode & window state
+     */
+    public CachePolicy getCachePolicy(String module, String mode, String windowState) {
+        final Map<String,Map<String,CachePolicy>> byMode = policies.get(module);
+        final Map<String,CachePolicy> byWindowState = byMode != null ? byMode.get(mode) : null;
+        final CachePolicy rslt = byWindowState != null ? byWindowState.get(windowState) : null;
+        return rslt != null
+                ? rslt
+                : resolve(module, mode, windowState);  // Not one we know about (yet)
+    }
+
+    /*
+     * Implementation
+     */
+
+    private CachePolicy resolve(String module, String mode, String windowState) {
+
+        final String cacheScopeValue = getProperty(SoffitRendererController.CACHE_SCOPE_PROPERTY_FORMAT, module, mode, windowState);
+        final String cacheMaxAgeValue = getProperty(SoffitRendererController.CACHE_MAXAGE_PROPERTY_FORMAT, module, mode, windowState);
+
+        // Both must be specified, else we just use the default...
+        if (StringUtils.isEmpty(cacheScopeValue) || StringUtils.isEmpty(cacheMaxAgeValue)
+                || SoffitRendererController.CACHE_CONTROL_NOSTORE.equalsIgnoreCase(cacheScopeValue.trim())) {
+            return CachePolicy.NO_STORE;
+        }
+
+        long maxAgeSeconds = -1L;
+        try {
+            maxAgeSeconds = Long.parseLong(cacheMaxAgeValue.trim());
+        } catch (NumberFormatException e) {
+            logger.warn("Invalid max-age '{}' for module '{}'", cacheMaxAgeValue, module);
+        }
+
+        /*
+         * A max-age of 0 means the connector may keep the response, but
+         * must revalidate it (using the ETag provided by the
+         * ConditionalRequestFilter) each time.
+         */
+        final String cacheControl = "0".equals(cacheMaxAgeValue.trim())
+                ? cacheScopeValue + ", " + SoffitRendererController.CACHE_CONTROL_NOCACHE
+                : cacheScopeValue + ", max-age=" + cacheMaxAgeValue;
+
+        final CachePolicy rslt = new CachePolicy(cacheControl, cacheScopeValue.trim(), maxAgeSeconds);
+        logger.debug("Resolved cache-control='{}' for module '{}' in mode '{}' and window state '{}'",
+                cacheControl, module, mode, windowState);
+        return rslt;
+
+    }
+
+    /**
+     * @return The value of the most specific property defined for this
+     * module, mode & window state
+     */
+    private String getProperty(String format, String module, String mode, String windowState) {
+        String rslt = environment.getProperty(String.format(format, module + "." + mode + "." + windowState));
+        if (rslt == null) {
+            rslt = environment.getProperty(String.format(format, module + "." + mode));
+        }
+        if (rslt == null) {
+            rslt = environment.getProperty(String.format(format, module));
+        }
+        return rslt;
+    }
+
+    /*
+     * Nested Types
+     */
+
+    public static final class CachePolicy {
+
+        public static final CachePolicy NO_STORE = new CachePolicy(SoffitRendererController.CACHE_CONTROL_NOSTORE, null, -1L);
+
+        private final String cacheControl;
+        private final String scope;
+        private final long maxAgeSeconds;
+
+        private CachePolicy(String cacheControl, String scope, long maxAgeSeconds) {
+            this.cacheControl = cacheControl;
+            this.scope = scope;
+            this.maxAgeSeconds = maxAgeSeconds;
+        }
+
+        /**
+         * @return The value of the <code>Cache-Control</code> header
+         */
+        public String getCacheControl() {
+            return cacheControl;
+        }
+
+        /**
+         * @return The cache scope, or <code>null</code> if caching isn't
+         * allowed
+         */
+        public String getScope() {
+            return scope;
+        }
+
+        /**
+         * @return True if the response is the same for all users
+         */
+        public boolean isScopePublic() {
+            return scope != null && SoffitRendererController.CACHE_SCOPE_PUBLIC.equalsIgnoreCase(scope);
+        }
+
+        /**
+         * @return The max-age in seconds, or -1 if there isn't a (valid) one
+         */
+        public long getMaxAgeSeconds() {
+            return maxAgeSeconds;
+        }
+
+        /**
+         * @return True if the rendered output may be reused without
+         * revalidation
+         */
+        public boolean isOutputCacheable() {
+            return maxAgeSeconds > 0L;
+        }
+
+    }
+
+}
@@ -0,0 +1,136 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apereo.portal.soffit.renderer;
+
+import java.io.IOException;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apereo.portal.soffit.Headers;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+/**
+ * Supports validation caching for soffit responses.  Computes a strong
+ * <code>ETag</code> for each successful response by hashing the rendered
+ * output as it is written, and responds with 304 (Not Modified) when the
+ * Soffit Connector already has the current content (based on
+ * <code>If-None-Match</code> or, if the soffit sets
+ * <code>Last-Modified</code>, <code>If-Modified-Since</code>).  Responses that
+ * may not be stored can never be revalidated, so they are streamed through
+ * unchanged.<p>
+ *
+ * Only requests from the Soffit Connector (identified by the presence of
+ * the PortalRequest header) are affected.
+ *
+ * @author agent
+ */
+@Order(ConditionalRequestFilter.ORDER)
+public class ConditionalRequestFilter extends OncePerRequestFilter {
+
+    /**
+     * Runs after the {@link DeadlineFilter} and ahead of the {@link OutputCacheFilter},
+     * so the ETag reflects the final output (and any {@link CacheDirectives}).
+     */
+    public static final int ORDER = Ordered.LOWEST_PRECEDENCE - 300;
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest req) throws ServletException {
+        return !"GET".equals(req.getMethod())
+                || req.getHeader(Headers.PORTAL_REQUEST.getName()) == null;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest req, HttpServletResponse res, FilterChain chain)
+            throws ServletException, IOException {
+
+        final BufferingResponseWrapper existing = BufferingResponseWrapper.get(req);
+        final BufferingResponseWrapper wrapper = existing != null
+                ? existing
+                : BufferingResponseWrapper.create(req, res);
+        try {
+            chain.doFilter(req, existing != null ? res : wrapper);
+        } finally {
+            if (existing == null) {
+                wrapper.release();
+            }
+        }
+        wrapper.flushWriter();
+
+        if (wrapper.isBuffered() && wrapper.getStatus() == HttpServletResponse.SC_OK) {
+            // Soffits may specify their own (e.g. through CacheDirectives)
+            final String etag = wrapper.getETag() != null
+                    ? wrapper.getETag()
+                    : "\"" + Hex.encodeHexString(wrapper.getDigest()) + "\"";
+            wrapper.setHeader(Headers.ETAG.getName(), etag);
+
+            if (isNotModified(req, etag, wrapper.getLastModified())) {
+                logger.debug("Responding 304 (Not Modified) for ETag " + etag);
+                wrapper.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                wrapper.discardBody();
+            }
+        }
+
+        if (existing == null) {
+            wrapper.writeBodyTo(res);
+        }
+
+    }
+
+    /*
+     * Implementation
+     */
+
+    private boolean isNotModified(HttpServletRequest req, String etag, long lastModified) {
+
+        final String ifNoneMatch = req.getHeader(Headers.IF_NONE_MATCH.getName());
+        if (ifNoneMatch != null) {
+            // When present, If-None-Match takes precedence over If-Modified-Since
+            for (String candidate : ifNoneMatch.split(",")) {
+                final String trimmed = candidate.trim();
+                if (trimmed.equals(etag) || trimmed.equals("*")) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        if (lastModified > 0L) {
+            final long ifModifiedSince;
+            try {
+                ifModifiedSince = req.getDateHeader(Headers.IF_MODIFIED_SINCE.getName());
+            } catch (IllegalArgumentException e) {
+                // Not a valid date;  ignore it
+                return false;
+            }
+            // HTTP dates have a resolution of one second
+            return ifModifiedSince != -1L && ifModifiedSince >= (lastModified / 1000L) * 1000L;
+        }
+
+        return false;
+
+    }
+
+}
@@ -0,0 +1,106 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apereo.portal.soffit.renderer;
+
+import java.io.IOException;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apereo.portal.soffit.Headers;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+/**
+ * Establishes the deadline for requests from the Soffit Connector, based on
+ * the time it allows (in milliseconds) and the clock of the soffit, so that
+ * the {@link SoffitRendererController} can abandon requests for which the
+ * connector has stopped waiting instead of rendering their views.  Time the
+ * request spent before reaching this filter (e.g. in a queue) isn't counted.
+ *
+ * @author agent
+ */
+@Order(DeadlineFilter.ORDER)
+public class DeadlineFilter extends OncePerRequestFilter {
+
+    /**
+     * Runs ahead of the renderer's other filters, so the time they take
+     * counts against the deadline.
+     */
+    public static final int ORDER = Ordered.LOWEST_PRECEDENCE - 400;
+
+    private static final String DEADLINE_ATTRIBUTE = DeadlineFilter.class.getName() + ".DEADLINE";
+
+    /**
+     * @return The deadline for this request (in milliseconds since the epoch,
+     * by the clock of the soffit), or <code>null</code> if the request did not
+     * specify a valid timeout
+     */
+    public static Long getDeadline(HttpServletRequest req) {
+        return (Long) req.getAttribute(DEADLINE_ATTRIBUTE);
+    }
+
+    /**
+     * Indicates the Soffit Connector is no longer waiting for the response to
+     * this request.
+     */
+    public static boolean isPastDeadline(HttpServletRequest req) {
+        final Long deadline = getDeadline(req);
+        return deadline != null && System.currentTimeMillis() > deadline;
+    }
+
+    /**
+     * Responds 503 (Service Unavailable) to a request that is past its
+     * deadline, in a way the Soffit Connector doesn't count against the
+     * soffit.
+     */
+    public static void abandon(HttpServletResponse res) {
+        res.setHeader(Headers.ABANDONED.getName(), Boolean.TRUE.toString());
+        res.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest req) throws ServletException {
+        return req.getHeader(Headers.TIMEOUT.getName()) == null;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest req, HttpServletResponse res, FilterChain chain)
+            throws ServletException, IOException {
+
+        final long now = System.currentTimeMillis();
+        final String value = req.getHeader(Headers.TIMEOUT.getName());
+        try {
+            final long timeoutMillis = Long.parseLong(value.trim());
+            if (timeoutMillis > 0L) {
+                req.setAttribute(DEADLINE_ATTRIBUTE, now + timeoutMillis);
+            }
+        } catch (NumberFormatException e) {
+            logger.warn("Ignoring invalid value '" + value + "' for header " + Headers.TIMEOUT.getName());
+        }
+
+        chain.doFilter(req, res);
+
+    }
+
+}
@@ -0,0 +1,77 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apereo.portal.soffit.renderer;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apereo.portal.soffit.model.v1_0.Bearer;
+import org.apereo.portal.soffit.service.BearerService;
+
+/**
+ * {@link Bearer} that doesn't decrypt and parse its token until one of its
+ * properties is first accessed;  views that don't use the bearer never pay for
+ * it.  Not thread-safe (like the request it belongs to).
+ *
+ * @author agent
+ */
+class LazyBearer extends Bearer {
+
+    private final BearerService bearerService;
+    private Bearer bearer = null;
+
+    public LazyBearer(String encryptedToken, BearerService bearerService) {
+        super(encryptedToken, null, Collections.<String,List<String>>emptyMap(), Collections.<String>emptyList());
+        this.bearerService = bearerService;
+    }
+
+    @Override
+    public String getUsername() {
+        return getBearer().getUsername();
+    }
+
+    @Override
+    public Map<String, List<String>> getAttributes() {
+        return getBearer().getAttributes();
+    }
+
+    @Override
+    public List<String> getGroups() {
+        return getBearer().getGroups();
+    }
+
+    @Override
+    public String toString() {
+        return getBearer().toString();
+    }
+
+    /*
+     * Implementation
+     */
+
+    private Bearer getBearer() {
+        if (bearer == null) {
+            bearer = bearerService.parseBearerToken(getEncryptedToken());
+        }
+        return bearer;
+    }
+
+}
@@ -0,0 +1,88 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apereo.portal.soffit.renderer;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apereo.portal.soffit.model.v1_0.Definition;
+import org.apereo.portal.soffit.service.DefinitionService;
+
+/**
+ * {@link Definition} that doesn't decrypt and parse its token until one of its
+ * properties is first accessed.  Not thread-safe (like the request it belongs
+ * to).
+ *
+ * @author agent
+ */
+class LazyDefinition extends Definition {
+
+    private final DefinitionService definitionService;
+    private Definition definition = null;
+
+    public LazyDefinition(String encryptedToken, DefinitionService definitionService) {
+        super(encryptedToken, null, null, null, Collections.<String>emptyList(),
+                Collections.<String,List<String>>emptyMap());
+        this.definitionService = definitionService;
+    }
+
+    @Override
+    public String getTitle() {
+        return getDefinition().getTitle();
+    }
+
+    @Override
+    public String getFname() {
+        return getDefinition().getFname();
+    }
+
+    @Override
+    public String getDescription() {
+        return getDefinition().getDescription();
+    }
+
+    @Override
+    public List<String> getCategories() {
+        return getDefinition().getCategories();
+    }
+
+    @Override
+    public Map<String, List<String>> getParameters() {
+        return getDefinition().getParameters();
+    }
+
+    @Override
+    public String toString() {
+        return getDefinition().toString();
+    }
+
+    /*
+     * Implementation
+     */
+
+    private Definition getDefinition() {
+        if (definition == null) {
+            definition = definitionService.parseDefinition(getEncryptedToken());
+        }
+        return definition;
+    }
+
+}
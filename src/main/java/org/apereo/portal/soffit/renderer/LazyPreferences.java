@@ -0,0 +1,71 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apereo.portal.soffit.renderer;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apereo.portal.soffit.model.v1_0.Preferences;
+import org.apereo.portal.soffit.service.PreferencesService;
+
+/**
+ * {@link Preferences} that don't decrypt and parse their token until they are
+ * first accessed.  Not thread-safe (like the request they belong to).
+ *
+ * @author agent
+ */
+class LazyPreferences extends Preferences {
+
+    private final PreferencesService preferencesService;
+    private Preferences preferences = null;
+
+    public LazyPreferences(String encryptedToken, PreferencesService preferencesService) {
+        super(encryptedToken, Collections.<String,List<String>>emptyMap());
+        this.preferencesService = preferencesService;
+    }
+
+    @Override
+    public List<String> getValues(String name) {
+        return getPreferences().getValues(name);
+    }
+
+    @Override
+    public Map<String,List<String>> getPreferencesMap() {
+        return getPreferences().getPreferencesMap();
+    }
+
+    @Override
+    public String toString() {
+        return getPreferences().toString();
+    }
+
+    /*
+     * Implementation
+     */
+
+    private Preferences getPreferences() {
+        if (preferences == null) {
+            preferences = preferencesService.parsePreferences(getEncryptedToken());
+        }
+        return preferences;
+    }
+
+}
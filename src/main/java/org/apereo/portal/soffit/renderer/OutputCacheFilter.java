@@ -0,0 +1,238 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apereo.portal.soffit.renderer;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.management.ObjectName;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apereo.portal.soffit.Headers;
+import org.apereo.portal.soffit.metrics.MetricsRegistrar;
+import org.apereo.portal.soffit.service.ExpiringCache;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+/**
+ * Retains the rendered output of soffits that allow caching, so that identical
+ * requests (e.g. from several portal nodes, each with its own cold cache) are
+ * served without rendering the view again.  The {@link SoffitRendererController}
+ * decides whether a response may be cached, and under what key, and serves
+ * cached output itself;  this filter applies the {@link CacheDirectives} of
+ * the request once it has been rendered, and retains the output if they
+ * allow.  The output is buffered by a {@link BufferingResponseWrapper} shared
+ * with the {@link ConditionalRequestFilter}.<p>
+ *
+ * Only requests from the Soffit Connector (identified by the presence of
+ * the PortalRequest header) are affected.
+ *
+ * @since 5.0
+ * @author agent
+ */
+@Order(OutputCacheFilter.ORDER)
+public class OutputCacheFilter extends OncePerRequestFilter {
+
+    /**
+     * Runs after the {@link DeadlineFilter} and the {@link ConditionalRequestFilter},
+     * closest to the {@link SoffitRendererController}.
+     */
+    public static final int ORDER = Ordered.LOWEST_PRECEDENCE - 100;
+
+    /**
+     * Maximum number of rendered responses retained;  0 disables the cache.
+     */
+    public static final String OUTPUT_CACHE_SIZE_PROPERTY = "soffit.renderer.outputCacheSize";
+
+    private static final String FILTER_ATTRIBUTE = OutputCacheFilter.class.getName() + ".FILTER";
+    private static final String PENDING_KEY_ATTRIBUTE = OutputCacheFilter.class.getName() + ".PENDING_KEY";
+
+    @Value("${" + OUTPUT_CACHE_SIZE_PROPERTY + ":1000}")
+    private int outputCacheSize;
+
+    private ExpiringCache<String,CachedOutput> cache;
+
+    private final RendererMetrics metrics = new RendererMetrics();
+    private ObjectName metricsObjectName;
+
+    /**
+     * Writes the cached output for this key to the response, if there is any.
+     *
+     * @return True if the response was served from the cache
+     */
+    public static boolean writeCachedOutput(HttpServletRequest req, HttpServletResponse res, String key) throws IOException {
+        final OutputCacheFilter filter = (OutputCacheFilter) req.getAttribute(FILTER_ATTRIBUTE);
+        if (filter == null || filter.cache == null) {
+            return false;
+        }
+        final CachedOutput cachedOutput = filter.cache.get(key);
+        if (cachedOutput == null) {
+            return false;
+        }
+        if (cachedOutput.getContentType() != null) {
+            res.setContentType(cachedOutput.getContentType());
+        }
+        res.setHeader(Headers.CACHE_CONTROL.getName(), cachedOutput.getCacheControl());
+        // Otherwise the connector would keep it for another max-age
+        res.setHeader(Headers.AGE.getName(), Long.toString(cachedOutput.getAgeSeconds()));
+        if (cachedOutput.getLastModified() > 0L) {
+            res.setDateHeader(Headers.LAST_MODIFIED.getName(), cachedOutput.getLastModified());
+        }
+        if (cachedOutput.getETag() != null) {
+            res.setHeader(Headers.ETAG.getName(), cachedOutput.getETag());
+        }
+        res.getOutputStream().write(cachedOutput.getBody());
+        filter.metrics.recordOutputCacheHit();
+        return true;
+    }
+
+    /**
+     * Retains the output of this request under this key once it has been
+     * rendered successfully, if (and for as long as) its
+     * {@link CacheDirectives} allow.
+     */
+    public static void cacheOutput(HttpServletRequest req, String key) {
+        final OutputCacheFilter filter = (OutputCacheFilter) req.getAttribute(FILTER_ATTRIBUTE);
+        if (filter != null && filter.cache != null) {
+            req.setAttribute(PENDING_KEY_ATTRIBUTE, key);
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        if (outputCacheSize > 0) {
+            cache = new ExpiringCache<>(outputCacheSize);
+        }
+        metricsObjectName = MetricsRegistrar.register("Renderer", null, metrics);
+    }
+
+    @Override
+    public void destroy() {
+        MetricsRegistrar.unregister(metricsObjectName);
+        metricsObjectName = null;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest req) throws ServletException {
+        return !"GET".equals(req.getMethod())
+                || req.getHeader(Headers.PORTAL_REQUEST.getName()) == null;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest req, HttpServletResponse res, FilterChain chain)
+            throws ServletException, IOException {
+
+        final long start = System.nanoTime();
+        final BufferingResponseWrapper existing = BufferingResponseWrapper.get(req);
+        final BufferingResponseWrapper wrapper = existing != null
+                ? existing
+                : BufferingResponseWrapper.create(req, res);
+        req.setAttribute(FILTER_ATTRIBUTE, this);
+        try {
+            chain.doFilter(req, existing != null ? res : wrapper);
+        } finally {
+            req.removeAttribute(FILTER_ATTRIBUTE);
+            if (existing == null) {
+                wrapper.release();
+            }
+        }
+        wrapper.flushWriter();
+
+        final CacheDirectives cacheDirectives = CacheDirectives.get(req);
+        if (cacheDirectives != null) {
+            cacheDirectives.applyTo(wrapper);
+        }
+
+        final String pendingKey = (String) req.getAttribute(PENDING_KEY_ATTRIBUTE);
+        if (pendingKey != null && cacheDirectives != null && cacheDirectives.isOutputCacheable()
+                && wrapper.isBuffered() && wrapper.getStatus() == HttpServletResponse.SC_OK) {
+            logger.debug("Caching output for key " + pendingKey);
+            final CachedOutput cachedOutput = new CachedOutput(wrapper.getContentType(), wrapper.getBody(),
+                    cacheDirectives.getCacheControl(), cacheDirectives.getLastModified(), cacheDirectives.getETag());
+            cache.put(pendingKey, cachedOutput,
+                    System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(cacheDirectives.getMaxAge()));
+            metrics.recordOutputCacheStore();
+        }
+
+        if (existing == null) {
+            wrapper.writeBodyTo(res);
+        }
+        metrics.recordRequest(System.nanoTime() - start, wrapper.getStatus() == HttpServletResponse.SC_OK,
+                wrapper.getBodySize());
+
+    }
+
+    /*
+     * Nested Types
+     */
+
+    private static final class CachedOutput {
+
+        private final String contentType;
+        private final byte[] body;
+        private final String cacheControl;
+        private final long lastModified;
+        private final String eTag;
+        private final long created = System.currentTimeMillis();
+
+        public CachedOutput(String contentType, byte[] body, String cacheControl, long lastModified, String eTag) {
+            this.contentType = contentType;
+            this.body = body;
+            this.cacheControl = cacheControl;
+            this.lastModified = lastModified;
+            this.eTag = eTag;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+
+        public String getCacheControl() {
+            return cacheControl;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public String getETag() {
+            return eTag;
+        }
+
+        /**
+         * @return Whole seconds since the output was rendered
+         */
+        public long getAgeSeconds() {
+            return TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - created);
+        }
+
+    }
+
+}
@@ -0,0 +1,92 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apereo.portal.soffit.renderer;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apereo.portal.soffit.metrics.Histogram;
+
+/**
+ * Collects the metrics of the Soffit Renderer.
+ *
+ * @since 5.0
+ * @author agent
+ */
+public final class RendererMetrics implements RendererMetricsMXBean {
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final Histogram latency = new Histogram();
+    private final AtomicLong outputCacheHits = new AtomicLong();
+    private final AtomicLong outputCacheStores = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+
+    @Override
+    public long getRequests() {
+        return requests.get();
+    }
+
+    @Override
+    public long getFailures() {
+        return failures.get();
+    }
+
+    @Override
+    public Histogram getLatency() {
+        return latency;
+    }
+
+    @Override
+    public long getOutputCacheHits() {
+        return outputCacheHits.get();
+    }
+
+    @Override
+    public long getOutputCacheStores() {
+        return outputCacheStores.get();
+    }
+
+    @Override
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    /*
+     * Implementation
+     */
+
+    void recordRequest(long nanos, boolean success, long bytes) {
+        requests.incrementAndGet();
+        if (!success) {
+            failures.incrementAndGet();
+        }
+        latency.record(nanos);
+        bytesSent.addAndGet(bytes);
+    }
+
+    void recordOutputCacheHit() {
+        outputCacheHits.incrementAndGet();
+    }
+
+    void recordOutputCacheStore() {
+        outputCacheStores.incrementAndGet();
+    }
+
+}
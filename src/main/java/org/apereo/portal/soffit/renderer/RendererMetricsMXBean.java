@@ -0,0 +1,63 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apereo.portal.soffit.renderer;
+
+import org.apereo.portal.soffit.metrics.Histogram;
+
+/**
+ * Metrics of the Soffit Renderer, published over JMX as
+ * <code>org.apereo.portal.soffit:type=Renderer</code>.
+ *
+ * @since 5.0
+ * @author agent
+ */
+public interface RendererMetricsMXBean {
+
+    /**
+     * Requests from the Soffit Connector.
+     */
+    long getRequests();
+
+    /**
+     * Requests that did not complete successfully (status other than 200).
+     */
+    long getFailures();
+
+    /**
+     * Time to produce each response, whether rendered or cached.
+     */
+    Histogram getLatency();
+
+    /**
+     * Responses served from the output cache.
+     */
+    long getOutputCacheHits();
+
+    /**
+     * Rendered responses retained in the output cache.
+     */
+    long getOutputCacheStores();
+
+    /**
+     * Bytes of content sent to the Soffit Connector.
+     */
+    long getBytesSent();
+
+}
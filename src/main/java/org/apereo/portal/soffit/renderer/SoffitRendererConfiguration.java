@@ -41,6 +41,26 @@ public class SoffitRendererConfiguration {
         return new SoffitRendererController();
     }
 
+    /*
+     * Filters are applied in the order given by their @Order annotations,
+     * not the order of the declarations below.
+     */
+
+    @Bean
+    public ConditionalRequestFilter conditionalRequestFilter() {
+        return new ConditionalRequestFilter();
+    }
+
+    @Bean
+    public DeadlineFilter deadlineFilter() {
+        return new DeadlineFilter();
+    }
+
+    @Bean
+    public OutputCacheFilter outputCacheFilter() {
+        return new OutputCacheFilter();
+    }
+
     @Bean
     public BearerService bearerService() {
         return new BearerService();
@@ -1,20 +1,24 @@
 package org.apereo.portal.soffit.renderer;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
 
+import javax.annotation.PostConstruct;
+import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apereo.portal.soffit.Headers;
 import org.apereo.portal.soffit.model.v1_0.Bearer;
 import org.apereo.portal.soffit.model.v1_0.Definition;
 import org.apereo.portal.soffit.model.v1_0.PortalRequest;
 import org.apereo.portal.soffit.model.v1_0.Preferences;
 import org.apereo.portal.soffit.model.v1_0.PortalRequest.Attributes;
+import org.apereo.portal.soffit.renderer.CachePolicyRegistry.CachePolicy;
 import org.apereo.portal.soffit.service.BearerService;
 import org.apereo.portal.soffit.service.DefinitionService;
 import org.apereo.portal.soffit.service.PortalRequestService;
@@ -29,11 +33,12 @@ import org.springframework.web.bind.annotation.ModelAttribute;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.context.ServletContextAware;
 import org.springframework.web.servlet.ModelAndView;
 
 @Controller
 @RequestMapping("/soffit")
-public class SoffitRendererController {
+public class SoffitRendererController implements ServletContextAware {
 
     /**
      * The default value for the <code>Cache-Control</code> header is "no-store,"
@@ -45,10 +50,16 @@ public class SoffitRendererController {
 
     /**
      * Indicates the response may be cached with validation caching based on
-     * Last-Modified or ETag.  These features are not currently implemented.
+     * Last-Modified or ETag.  Sent (along with the scope) when the Soffit
+     * specifies a max-age of 0.
      */
     public static final String CACHE_CONTROL_NOCACHE = "no-cache";
 
+    /**
+     * Cache scope indicating the response is the same for all users.
+     */
+    public static final String CACHE_SCOPE_PUBLIC = "public";
+
     /**
      * Prefix for all custom properties.
      */
@@ -65,6 +76,20 @@ public class SoffitRendererController {
     public static final String CACHE_MAXAGE_PROPERTY_FORMAT = PROPERTY_PREFIX + "%s.cache.max-age";
 
     private static final String PORTAL_REQUEST_MODEL_NAME = "portalRequest";
+    private static final String CACHE_DIRECTIVES_MODEL_NAME = "cacheDirectives";
+
+    private static final String BEARER_ATTRIBUTE = SoffitRendererController.class.getName() + ".BEARER";
+    private static final String PREFERENCES_ATTRIBUTE = SoffitRendererController.class.getName() + ".PREFERENCES";
+    private static final String DEFINITION_ATTRIBUTE = SoffitRendererController.class.getName() + ".DEFINITION";
+
+    /**
+     * Stands in for the PortalRequest when the soffit's <code>requiredHeaders</code>
+     * leave it out.
+     */
+    private static final PortalRequest EMPTY_PORTAL_REQUEST = new PortalRequest(null,
+            Collections.<String,String>emptyMap(),
+            Collections.<String,List<String>>emptyMap(),
+            Collections.<String,List<String>>emptyMap());
 
     private static final String DEFAULT_MODE = "view";
     private static final String DEFAULT_WINDOW_STATE = "normal";
@@ -86,208 +111,240 @@ public class SoffitRendererController {
 
     @Value("${soffit.renderer.viewsLocation:/WEB-INF/soffit/}")
     private String viewsLocation;
-    private final Map<ViewTuple,String> availableViews = new HashMap<>();
+
+    /**
+     * Views are indexed once, at startup;  a positive value causes the index
+     * to be rebuilt (on the next request) when it is older than this, which
+     * is useful in development.
+     */
+    @Value("${soffit.renderer.viewsRefreshSeconds:0}")
+    private long viewsRefreshSeconds;
+
+    private ServletContext servletContext;
+    private volatile ViewIndex viewIndex;
+    private volatile CachePolicyRegistry cachePolicyRegistry;
 
     protected final Logger logger = LoggerFactory.getLogger(getClass());
 
+    @Override
+    public void setServletContext(ServletContext servletContext) {
+        this.servletContext = servletContext;
+    }
+
+    @PostConstruct
+    public void init() {
+        viewIndex = new ViewIndex(servletContext, viewsLocation);
+        cachePolicyRegistry = new CachePolicyRegistry(viewIndex, environment);
+    }
+
     @RequestMapping(value="/{module}", method=RequestMethod.GET)
-    public ModelAndView render(final HttpServletRequest req, final HttpServletResponse res, final @PathVariable String module) {
+    public ModelAndView render(final HttpServletRequest req, final HttpServletResponse res, final @PathVariable String module) throws IOException {
 
         logger.debug("Rendering for request URI '{}'", req.getRequestURI());
 
         // PortalRequest
         final String portalRequestToken = req.getHeader(Headers.PORTAL_REQUEST.getName());
-        final PortalRequest portalRequest = portalRequestService.parsePortalRequest(portalRequestToken);
+        final PortalRequest portalRequest = portalRequestToken != null
+                ? portalRequestService.parsePortalRequest(portalRequestToken)
+                : EMPTY_PORTAL_REQUEST;
 
         // Select a view
-        final String viewName = selectView(req, module, portalRequest);
+        final String mode = getMode(portalRequest);
+        final String windowState = getWindowState(portalRequest);
+        final String viewName = selectView(module, mode, windowState);
+
+        // Don't render a view the connector will throw away
+        if (DeadlineFilter.isPastDeadline(req)) {
+            logger.warn("Abandoning the request for module '{}' because the deadline has passed", module);
+            DeadlineFilter.abandon(res);
+            return null;
+        }
 
         // Set up cache headers appropriately
-        configureCacheHeaders(res, module);
+        final CachePolicy cachePolicy = getCachePolicyRegistry().getCachePolicy(module, mode, windowState);
+        configureCacheHeaders(res, module, cachePolicy);
+
+        // Rendered before?
+        if (useOutputCache(req, res, module, mode, windowState, portalRequest, cachePolicy)) {
+            logger.debug("Served module '{}' from the output cache", module);
+            return null;
+        }
 
-        return new ModelAndView(viewName.toString(), PORTAL_REQUEST_MODEL_NAME, portalRequest);
+        // Soffits may adjust caching for this response as they render it
+        final CacheDirectives cacheDirectives = CacheDirectives.create(cachePolicy, req);
+
+        return new ModelAndView(viewName.toString(), PORTAL_REQUEST_MODEL_NAME, portalRequest)
+                .addObject(CACHE_DIRECTIVES_MODEL_NAME, cacheDirectives);
 
     }
 
+    /*
+     * The following model attributes are resolved before the handler runs,
+     * whether or not the view uses them;  tokens are therefore wrapped in lazy models that aren't decrypted and parsed until
+     * first accessed.  Each lazy model is created once per request (and kept
+     * in a request attribute), so its token is parsed at most once however
+     * often it is looked up.  Model objects the connector didn't send
+     * (because of the soffit's requiredHeaders) are null.
+     */
+
     @ModelAttribute("bearer")
     public Bearer getBearer(final HttpServletRequest req) {
-        final String authorizationHeader = req.getHeader(Headers.AUTHORIZATION.getName());
-        final String bearerToken = authorizationHeader.substring(Headers.BEARER_TOKEN_PREFIX.length());
-        return bearerService.parseBearerToken(bearerToken);
+        Bearer rslt = (Bearer) req.getAttribute(BEARER_ATTRIBUTE);
+        if (rslt == null) {
+            final String authorizationHeader = req.getHeader(Headers.AUTHORIZATION.getName());
+            if (authorizationHeader == null || !authorizationHeader.startsWith(Headers.BEARER_TOKEN_PREFIX)) {
+                return null;
+            }
+            final String bearerToken = authorizationHeader.substring(Headers.BEARER_TOKEN_PREFIX.length());
+            rslt = new LazyBearer(bearerToken, bearerService);
+            req.setAttribute(BEARER_ATTRIBUTE, rslt);
+        }
+        return rslt;
     }
 
     @ModelAttribute("preferences")
     public Preferences getPreferences(final HttpServletRequest req) {
-        final String preferencesToken = req.getHeader(Headers.PREFERECES.getName());
-        return preferencesService.parsePreferences(preferencesToken);
+        Preferences rslt = (Preferences) req.getAttribute(PREFERENCES_ATTRIBUTE);
+        if (rslt == null) {
+            final String preferencesToken = req.getHeader(Headers.PREFERECES.getName());
+            if (preferencesToken == null) {
+                return null;
+            }
+            rslt = new LazyPreferences(preferencesToken, preferencesService);
+            req.setAttribute(PREFERENCES_ATTRIBUTE, rslt);
+        }
+        return rslt;
     }
 
     @ModelAttribute("definition")
     public Definition getDefinition(final HttpServletRequest req) {
-        final String definitionToken = req.getHeader(Headers.DEFINITION.getName());
-        return definitionService.parseDefinition(definitionToken);
+        Definition rslt = (Definition) req.getAttribute(DEFINITION_ATTRIBUTE);
+        if (rslt == null) {
+            final String definitionToken = req.getHeader(Headers.DEFINITION.getName());
+            if (definitionToken == null) {
+                return null;
+            }
+            rslt = new LazyDefinition(definitionToken, definitionService);
+            req.setAttribute(DEFINITION_ATTRIBUTE, rslt);
+        }
+        return rslt;
     }
 
     /*
      * Implementation
      */
 
-    private void configureCacheHeaders(final HttpServletResponse res, final String module) {
-
-        final String cacheScopeProperty = String.format(CACHE_SCOPE_PROPERTY_FORMAT, module);
-        final String cacheScopeValue = environment.getProperty(cacheScopeProperty);
-        logger.debug("Selecting cacheScopeValue='{}' for property '{}'", cacheScopeValue, cacheScopeProperty);
-
-        final String cacheMaxAgeProperty = String.format(CACHE_MAXAGE_PROPERTY_FORMAT, module);
-        final String cacheMaxAgeValue = environment.getProperty(cacheMaxAgeProperty);
-        logger.debug("Selecting cacheMaxAgeValue='{}' for property '{}'", cacheMaxAgeValue, cacheMaxAgeProperty);
-
-        // Both must be specified, else we just use the default...
-        final String cacheControl = (StringUtils.isNotEmpty(cacheScopeValue) && StringUtils.isNotEmpty(cacheMaxAgeValue))
-                ? cacheScopeValue + ", max-age=" + cacheMaxAgeValue
-                : CACHE_CONTROL_NOSTORE;
-        logger.debug("Setting cache-control='{}' for module '{}'", cacheControl, module);
-
-        // TODO: support validation caching
+    /**
+     * @return The current index of available views, rebuilt first if
+     * refreshing is enabled and it has expired
+     */
+    private ViewIndex getViewIndex() {
+        ViewIndex rslt = viewIndex;
+        if (viewsRefreshSeconds > 0L && rslt.getCreated() + TimeUnit.SECONDS.toMillis(viewsRefreshSeconds) < System.currentTimeMillis()) {
+            rslt = new ViewIndex(servletContext, viewsLocation);
+            cachePolicyRegistry = new CachePolicyRegistry(rslt, environment);
+            viewIndex = rslt;
+        }
+        return rslt;
+    }
 
-        res.setHeader(Headers.CACHE_CONTROL.getName(), cacheControl);
+    /**
+     * @return The cache policies of the modules in the current index
+     */
+    private CachePolicyRegistry getCachePolicyRegistry() {
+        getViewIndex();  // Refreshes both, if necessary
+        return cachePolicyRegistry;
+    }
 
+    private void configureCacheHeaders(final HttpServletResponse res, final String module, final CachePolicy cachePolicy) {
+        logger.debug("Setting cache-control='{}' for module '{}'", cachePolicy.getCacheControl(), module);
+        res.setHeader(Headers.CACHE_CONTROL.getName(), cachePolicy.getCacheControl());
     }
 
-    private String selectView(final HttpServletRequest req, final String module, final PortalRequest portalRequest) {
+    /**
+     * Serves the response from the {@link OutputCacheFilter}, if the soffit
+     * allows caching and the output is there, or else arranges for the output
+     * to be cached once rendered.  Besides the module, mode & window state
+     * and the request parameters, shared (public) output is keyed by the
+     * publication (fname) and the preferences.  Private output is keyed by
+     * the tokens of the model objects themselves, which are issued for one
+     * user and reused while their content is unchanged, so the cache is
+     * checked without decrypting them.
+     *
+     * @return True if the response was served from the cache
+     */
+    private boolean useOutputCache(final HttpServletRequest req, final HttpServletResponse res, final String module,
+            final String mode, final String windowState, final PortalRequest portalRequest, final CachePolicy cachePolicy)
+            throws IOException {
 
-        final StringBuilder modulePathBuilder = new StringBuilder().append(viewsLocation);
-        if (!viewsLocation.endsWith("/")) {
-            // Final slash in the configs is optional
-            modulePathBuilder.append("/");
+        if (!cachePolicy.isOutputCacheable()) {
+            return false;
         }
-        modulePathBuilder.append(module).append("/");
-        final String modulePath = modulePathBuilder.toString();
-
-        logger.debug("Calculated modulePath of '{}'", modulePath);
-
-        @SuppressWarnings("unchecked")
-        final Set<String> moduleResources = req.getSession().getServletContext().getResourcePaths(modulePath);
-
-        // Need to make a selection based on 3 things:  module (above), mode, & windowState
-        final Map<String,List<String>> requestAttributes = portalRequest.getAttributes();
-        final String modeLowercase = !requestAttributes.get(Attributes.MODE.getName()).isEmpty()
-                ? requestAttributes.get(Attributes.MODE.getName()).get(0).toLowerCase()
-                : DEFAULT_MODE;
-        final String windowStateLowercase = !requestAttributes.get(Attributes.WINDOW_STATE.getName()).isEmpty()
-                ? requestAttributes.get(Attributes.WINDOW_STATE.getName()).get(0).toLowerCase()
-                : DEFAULT_WINDOW_STATE;
 
-        final ViewTuple viewTuple = new ViewTuple(modulePath, modeLowercase, windowStateLowercase);
-        String rslt = availableViews.get(viewTuple);
-        if (rslt == null) {
-            /*
-             * This circumstance means that we haven't looked (yet);
-             * check for a file named to match all 3.
-             */
-            final String pathBasedOnModeAndState = getCompletePathforParts(modulePath, modeLowercase, windowStateLowercase);
-            if (moduleResources.contains(pathBasedOnModeAndState)) {
-                // We have a winner!
-                availableViews.put(viewTuple, pathBasedOnModeAndState);
-                rslt = pathBasedOnModeAndState;
-            } else {
-                // Widen the search (within this module) based on Mode only
-                final String pathBasedOnModeOnly = getCompletePathforParts(modulePath, modeLowercase);
-                if (moduleResources.contains(pathBasedOnModeOnly)) {
-                    // We still need to store the choice so we're not constantly looking
-                    availableViews.put(viewTuple, pathBasedOnModeOnly);
-                    rslt = pathBasedOnModeOnly;
-                } else {
-                    throw new IllegalStateException("Unable to select a view for Mode="
-                            + modeLowercase + " and WindowState=" + windowStateLowercase);
-                }
+        final StringBuilder key = new StringBuilder()
+                .append(module).append('|')
+                .append(mode).append('|')
+                .append(windowState).append('|')
+                .append(new TreeMap<>(portalRequest.getParameters())).append('|');
+        if (cachePolicy.isScopePublic()) {
+            // Tokens belong to a user, so shared output is keyed by their content
+            final Definition definition = getDefinition(req);
+            if (definition != null) {
+                key.append(definition.getFname());
             }
-        }
-
-        logger.info("Selected viewName='{}' for Mode='{}' and WindowState='{}'",
-                                rslt, modeLowercase, windowStateLowercase);
-
-        return rslt;
-
-    }
-
-    private String getCompletePathforParts(final String... parts) {
-
-        StringBuilder rslt = new StringBuilder();
-
-        for (String part : parts) {
-            rslt.append(part);
-            if (!part.endsWith("/")) {
-                // First part will be a directory
-                rslt.append(".");
+            key.append('|');
+            final Preferences preferences = getPreferences(req);
+            if (preferences != null) {
+                key.append(new TreeMap<>(preferences.getPreferencesMap()));
+            }
+        } else {
+            final String authorizationHeader = req.getHeader(Headers.AUTHORIZATION.getName());
+            if (authorizationHeader == null) {
+                // Can't tell whose output it is
+                return false;
             }
+            key.append(authorizationHeader).append('|')
+                    .append(req.getHeader(Headers.PREFERECES.getName())).append('|')
+                    .append(req.getHeader(Headers.DEFINITION.getName()));
         }
+        final String rslt = DigestUtils.sha256Hex(key.toString());
 
-        rslt.append("jsp");  // TODO:  support more options
-
-        logger.debug("Calculated path '{}' for parts={}", rslt, parts);
-
-        return rslt.toString();
+        if (OutputCacheFilter.writeCachedOutput(req, res, rslt)) {
+            return true;
+        }
+        OutputCacheFilter.cacheOutput(req, rslt);
+        return false;
 
     }
 
-    /*
-     * Nested Types
-     */
-
-    private static final class ViewTuple {
+    private String getMode(final PortalRequest portalRequest) {
+        final List<String> values = portalRequest.getAttributes().get(Attributes.MODE.getName());
+        return values != null && !values.isEmpty()
+                ? values.get(0).toLowerCase()
+                : DEFAULT_MODE;
+    }
 
-        private final String moduleName;
-        private final String mode;
-        private final String windowState;
+    private String getWindowState(final PortalRequest portalRequest) {
+        final List<String> values = portalRequest.getAttributes().get(Attributes.WINDOW_STATE.getName());
+        return values != null && !values.isEmpty()
+                ? values.get(0).toLowerCase()
+                : DEFAULT_WINDOW_STATE;
+    }
 
-        public ViewTuple(String moduleName, String mode, String windowState) {
-            this.moduleName = moduleName;
-            this.mode = mode;
-            this.windowState = windowState;
-        }
+    private String selectView(final String module, final String modeLowercase, final String windowStateLowercase) {
 
-        @Override
-        public int hashCode() {
-            final int prime = 31;
-            int result = 1;
-            result = prime * result + ((mode == null) ? 0 : mode.hashCode());
-            result = prime * result + ((moduleName == null) ? 0 : moduleName.hashCode());
-            result = prime * result + ((windowState == null) ? 0 : windowState.hashCode());
-            return result;
+        // Need to make a selection based on 3 things:  module, mode, & windowState
+        final String rslt = getViewIndex().getView(module, modeLowercase, windowStateLowercase);
+        if (rslt == null) {
+            // A file named to match all 3, or at least the Mode, is required
+            throw new IllegalStateException("Unable to select a view for Mode="
+                    + modeLowercase + " and WindowState=" + windowStateLowercase);
         }
 
-        @Override
-        public boolean equals(Object obj) {
-            if (this == obj)
-                return true;
-            if (obj == null)
-                return false;
-            if (getClass() != obj.getClass())
-                return false;
-            ViewTuple other = (ViewTuple) obj;
-            if (mode == null) {
-                if (other.mode != null)
-                    return false;
-            } else if (!mode.equals(other.mode))
-                return false;
-            if (moduleName == null) {
-                if (other.moduleName != null)
-                    return false;
-            } else if (!moduleName.equals(other.moduleName))
-                return false;
-            if (windowState == null) {
-                if (other.windowState != null)
-                    return false;
-            } else if (!windowState.equals(other.windowState))
-                return false;
-            return true;
-        }
+        logger.info("Selected viewName='{}' for Mode='{}' and WindowState='{}'",
+                                rslt, modeLowercase, windowStateLowercase);
 
-        @Override
-        public String toString() {
-            return "ViewTuple [moduleName=" + moduleName + ", mode=" + mode + ", windowState=" + windowState + "]";
-        }
+        return rslt;
 
     }
 
@@ -0,0 +1,221 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apereo.portal.soffit.renderer;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.servlet.ServletContext;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Immutable index of the views available to the {@link SoffitRendererController}
+ * by module, mode, and window state, built by scanning the views location once.
+ * Views are JSP files within a directory per module, named for a mode and
+ * (optionally) a window state, e.g. <code>/WEB-INF/soffit/my-module/view.jsp</code>
+ * or <code>/WEB-INF/soffit/my-module/view.maximized.jsp</code>.
+ *
+ * @author agent
+ */
+final class ViewIndex {
+
+    private static final String VIEW_SUFFIX = ".jsp";  // TODO:  support more options
+
+    private final Map<ViewTuple,String> views;
+    private final Set<String> modules;
+    private final Map<String,Set<String>> modes;
+    private final Map<String,Set<String>> windowStates;
+    private final long created = System.currentTimeMillis();
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    public ViewIndex(ServletContext servletContext, String viewsLocation) {
+
+        final String location = viewsLocation.endsWith("/")
+                ? viewsLocation
+                : viewsLocation + "/";  // Final slash in the configs is optional
+
+        final Map<ViewTuple,String> views = new HashMap<>();
+        final Set<String> modules = new HashSet<>();
+        final Map<String,Set<String>> modes = new HashMap<>();
+        final Map<String,Set<String>> windowStates = new HashMap<>();
+        final Set<String> modulePaths = getResourcePaths(servletContext, location);
+        for (String modulePath : modulePaths) {
+            if (!modulePath.endsWith("/")) {
+                // Not a module directory
+                continue;
+            }
+            final String module = modulePath.substring(location.length(), modulePath.length() - 1);
+            modules.add(module);
+            final Set<String> moduleModes = new HashSet<>();
+            final Set<String> moduleWindowStates = new HashSet<>();
+            for (String path : getResourcePaths(servletContext, modulePath)) {
+                if (!path.endsWith(VIEW_SUFFIX)) {
+                    continue;
+                }
+                final String name = path.substring(modulePath.length(), path.length() - VIEW_SUFFIX.length());
+                final int dot = name.indexOf('.');
+                final ViewTuple viewTuple = dot == -1
+                        ? new ViewTuple(module, name, null)
+                        : new ViewTuple(module, name.substring(0, dot), name.substring(dot + 1));
+                views.put(viewTuple, path);
+                moduleModes.add(viewTuple.getMode());
+                if (viewTuple.getWindowState() != null) {
+                    moduleWindowStates.add(viewTuple.getWindowState());
+                }
+            }
+            modes.put(module, Collections.unmodifiableSet(moduleModes));
+            windowStates.put(module, Collections.unmodifiableSet(moduleWindowStates));
+        }
+
+        this.views = Collections.unmodifiableMap(views);
+        this.modules = Collections.unmodifiableSet(modules);
+        this.modes = modes;
+        this.windowStates = windowStates;
+
+        logger.info("Indexed {} views for modules {} in location '{}'", views.size(), this.modules, location);
+
+    }
+
+    /**
+     * @return The view for this mode & window state, the view for this mode
+     * (in any window state), or <code>null</code> if there's neither
+     */
+    public String getView(String module, String mode, String windowState) {
+        final String rslt = views.get(new ViewTuple(module, mode, windowState));
+        return rslt != null
+                ? rslt
+                : views.get(new ViewTuple(module, mode, null));
+    }
+
+    /**
+     * @return The names of all modules in the views location
+     */
+    public Set<String> getModules() {
+        return modules;
+    }
+
+    /**
+     * @return The modes for which this module has views
+     */
+    public Set<String> getModes(String module) {
+        final Set<String> rslt = modes.get(module);
+        return rslt != null ? rslt : Collections.<String>emptySet();
+    }
+
+    /**
+     * @return The window states for which this module has views specifically
+     */
+    public Set<String> getWindowStates(String module) {
+        final Set<String> rslt = windowStates.get(module);
+        return rslt != null ? rslt : Collections.<String>emptySet();
+    }
+
+    /**
+     * @return When this index was built (in milliseconds since the epoch)
+     */
+    public long getCreated() {
+        return created;
+    }
+
+    /*
+     * Implementation
+     */
+
+    private Set<String> getResourcePaths(ServletContext servletContext, String path) {
+        @SuppressWarnings("unchecked")
+        final Set<String> rslt = servletContext.getResourcePaths(path);
+        return rslt != null ? rslt : Collections.<String>emptySet();
+    }
+
+    /*
+     * Nested Types
+     */
+
+    private static final class ViewTuple {
+
+        private final String moduleName;
+        private final String mode;
+        private final String windowState;
+
+        public ViewTuple(String moduleName, String mode, String windowState) {
+            this.moduleName = moduleName;
+            this.mode = mode;
+            this.windowState = windowState;
+        }
+
+        public String getMode() {
+            return mode;
+        }
+
+        public String getWindowState() {
+            return windowState;
+        }
+
+        @Override
+        public int hashCode() {
+            final int prime = 31;
+            int result = 1;
+            result = prime * result + ((mode == null) ? 0 : mode.hashCode());
+            result = prime * result + ((moduleName == null) ? 0 : moduleName.hashCode());
+            result = prime * result + ((windowState == null) ? 0 : windowState.hashCode());
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (obj == null)
+                return false;
+            if (getClass() != obj.getClass())
+                return false;
+            ViewTuple other = (ViewTuple) obj;
+            if (mode == null) {
+                if (other.mode != null)
+                    return false;
+            } else if (!mode.equals(other.mode))
+                return false;
+            if (moduleName == null) {
+                if (other.moduleName != null)
+                    return false;
+            } else if (!moduleName.equals(other.moduleName))
+                return false;
+            if (windowState == null) {
+                if (other.windowState != null)
+                    return false;
+            } else if (!windowState.equals(other.windowState))
+                return false;
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return "ViewTuple [moduleName=" + moduleName + ", mode=" + mode + ", windowState=" + windowState + "]";
+        }
+
+    }
+
+}
@@ -19,22 +19,55 @@
 
 package org.apereo.portal.soffit.service;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.Key;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.crypto.spec.SecretKeySpec;
+import javax.management.ObjectName;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apereo.portal.soffit.ITokenizable;
-import org.jasypt.util.text.BasicTextEncryptor;
+import org.apereo.portal.soffit.metrics.MetricsRegistrar;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.CompressionCodec;
 import io.jsonwebtoken.Jws;
+import io.jsonwebtoken.JwsHeader;
+import io.jsonwebtoken.JwtBuilder;
 import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.MalformedJwtException;
 import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.SignatureException;
+import io.jsonwebtoken.UnsupportedJwtException;
+import io.jsonwebtoken.impl.TextCodec;
+import io.jsonwebtoken.impl.compression.CompressionCodecs;
+import io.jsonwebtoken.impl.crypto.DefaultJwtSignatureValidator;
+import io.jsonwebtoken.impl.crypto.DefaultJwtSigner;
+import io.jsonwebtoken.impl.crypto.JwtSignatureValidator;
+import io.jsonwebtoken.impl.crypto.JwtSigner;
 
 /**
  * Base class for services that produce JASON Web Tokens.
@@ -51,6 +84,76 @@ public class AbstractJwtService {
     public static final String ENCRYPTION_PASSWORD_PROPERTY = "org.apereo.portal.soffit.jwt.encryptionPassword";
     public static final String DEFAULT_ENCRYPTION_PASSWORD = "CHANGEME";
 
+    /**
+     * Selects the cipher used to encrypt new tokens:  either 'jasypt'
+     * (compatible with all existing deployments) or 'aes-gcm' (much faster;
+     * requires Java 8).  Tokens encrypted with either cipher can always be
+     * decrypted, so deployments can migrate one side at a time.
+     */
+    public static final String ENCRYPTION_ALGORITHM_PROPERTY = "org.apereo.portal.soffit.jwt.encryptionAlgorithm";
+    public static final String DEFAULT_ENCRYPTION_ALGORITHM = JasyptTokenCipher.NAME;
+
+    /**
+     * Selects how the claims of new tokens are compressed (before they are
+     * signed and encrypted):  either 'none' (the default) or 'deflate'.  The
+     * JWT header of a compressed token identifies the codec ("zip":"DEF"), so
+     * parsers decompress it automatically;  deflate is worthwhile for large
+     * tokens (e.g. a Bearer with many groups).
+     */
+    public static final String COMPRESSION_PROPERTY = "org.apereo.portal.soffit.jwt.compression";
+    public static final String COMPRESSION_NONE = "none";
+    public static final String COMPRESSION_DEFLATE = "deflate";
+
+    /**
+     * Number of Jasypt encryptors each service uses concurrently;  0 (the
+     * default) means one per available processor.
+     */
+    public static final String ENCRYPTOR_POOL_SIZE_PROPERTY = "org.apereo.portal.soffit.jwt.encryptorPoolSize";
+
+    /**
+     * Maximum number of encrypted tokens each service retains for reuse;  0
+     * disables reuse.
+     */
+    public static final String TOKEN_CACHE_SIZE_PROPERTY = "org.apereo.portal.soffit.jwt.tokenCacheSize";
+
+    /**
+     * Granularity of token expiration (in seconds) when tokens are reused;
+     * the expiration of a reusable token is rounded down to a multiple of
+     * this value, so that requests made within the same interval produce the
+     * same claims.
+     */
+    public static final String TOKEN_EXPIRATION_BUCKET_PROPERTY = "org.apereo.portal.soffit.jwt.tokenExpirationBucketSeconds";
+
+    /**
+     * Maximum number of parsed (decrypted & verified) tokens each service
+     * retains, so that a token received again is not parsed again;  0
+     * disables this cache.  Each entry expires with its token.  Services
+     * whose tokens aren't reused don't retain them.
+     */
+    public static final String PARSED_TOKEN_CACHE_SIZE_PROPERTY = "org.apereo.portal.soffit.jwt.parsedTokenCacheSize";
+
+    /**
+     * Tokens are not reused when they are this close to expiring.
+     */
+    private static final long TOKEN_REUSE_MARGIN_MILLIS = TimeUnit.SECONDS.toMillis(60L);
+
+    /**
+     * Produces the canonical form of claims for fingerprinting.
+     */
+    private static final ObjectMapper FINGERPRINT_MAPPER = new ObjectMapper()
+            .configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+
+    /**
+     * Reads (and writes) the claims of tokens that are decoded (and encoded)
+     * with a streaming parser (and generator).
+     */
+    protected static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    /**
+     * Tokens are always signed with this algorithm.
+     */
+    private static final SignatureAlgorithm SIGNATURE_ALGORITHM = SignatureAlgorithm.HS512;
+
     protected final Logger logger = LoggerFactory.getLogger(getClass());
 
     @Value("${" + SIGNATURE_KEY_PROPERTY + ":" + DEFAULT_SIGNATURE_KEY + "}")
@@ -59,14 +162,70 @@ public class AbstractJwtService {
     @Value("${" + ENCRYPTION_PASSWORD_PROPERTY + ":" + DEFAULT_ENCRYPTION_PASSWORD + "}")
     private String encryptionPassword;
 
-    /*
-     * NOTE:  There is also a StrongTextEncryptor, but it requires each deployment
-     * to download and install the "Java Cryptography Extension (JCE) Unlimited
-     * Strength Jurisdiction Policy Files," which sounds like a tremendous PITA.
-     * The BasicTextEncryptor supports "normal-strength encryption of texts,"
-     * which should be satisfactory for our needs.
+    @Value("${" + ENCRYPTION_ALGORITHM_PROPERTY + ":" + DEFAULT_ENCRYPTION_ALGORITHM + "}")
+    private String encryptionAlgorithm;
+
+    @Value("${" + COMPRESSION_PROPERTY + ":" + COMPRESSION_NONE + "}")
+    private String compression;
+
+    @Value("${" + ENCRYPTOR_POOL_SIZE_PROPERTY + ":0}")
+    private int encryptorPoolSize;
+
+    @Value("${" + TOKEN_CACHE_SIZE_PROPERTY + ":1000}")
+    private int tokenCacheSize;
+
+    @Value("${" + TOKEN_EXPIRATION_BUCKET_PROPERTY + ":300}")
+    private long tokenExpirationBucketSeconds;
+
+    @Value("${" + PARSED_TOKEN_CACHE_SIZE_PROPERTY + ":1000}")
+    private int parsedTokenCacheSize;
+
+    /**
+     * Encrypted tokens by fingerprint;  null if disabled.
+     */
+    private ExpiringCache<String,String> tokenCache;
+
+    /**
+     * Model objects by encrypted token;  null if disabled.
+     */
+    private ExpiringCache<String,ITokenizable> parsedTokenCache;
+
+    /**
+     * Compresses the claims of new tokens;  null for none.
+     */
+    private CompressionCodec compressionCodec;
+
+    /**
+     * Encrypts new tokens.
+     */
+    private ITokenCipher tokenCipher;
+
+    private JasyptTokenCipher jasyptTokenCipher;
+
+    /**
+     * Deriving the key is expensive, so (unless it encrypts new tokens) this
+     * cipher is created the first time we receive a token that needs it.
+     */
+    private volatile AesGcmTokenCipher aesGcmTokenCipher;
+
+    /**
+     * Verifies the signatures of tokens decoded with a streaming parser.
+     */
+    private JwtSignatureValidator signatureValidator;
+
+    /**
+     * Signs tokens encoded with a streaming generator.
+     */
+    private JwtSigner signer;
+
+    /**
+     * The (Base64URL-encoded) JWT header of tokens encoded with a streaming
+     * generator;  it's the same for all of them.
      */
-    final BasicTextEncryptor textEncryptor = new BasicTextEncryptor();
+    private String encodedHeader;
+
+    private final TokenMetrics metrics = new TokenMetrics(this);
+    private ObjectName metricsObjectName;
 
     @PostConstruct
     public void init() {
@@ -86,8 +245,86 @@ public class AbstractJwtService {
         } else if (DEFAULT_ENCRYPTION_PASSWORD.equals(encryptionPassword)) {
             logger.warn("Property {} is using the deafult value;  please change it", ENCRYPTION_PASSWORD_PROPERTY);
         }
-        textEncryptor.setPassword(encryptionPassword);
 
+        // Compression
+        switch (compression) {
+            case COMPRESSION_NONE:
+                compressionCodec = null;
+                break;
+            case COMPRESSION_DEFLATE:
+                compressionCodec = CompressionCodecs.DEFLATE;
+                break;
+            default:
+                logger.error("Unsupported value '{}' for property {}", compression, COMPRESSION_PROPERTY);
+                throw new IllegalStateException("Unsupported value for property " + COMPRESSION_PROPERTY);
+        }
+
+        // Ciphers
+        jasyptTokenCipher = new JasyptTokenCipher(encryptionPassword, encryptorPoolSize);
+        switch (encryptionAlgorithm) {
+            case AesGcmTokenCipher.NAME:
+                tokenCipher = getAesGcmTokenCipher();
+                break;
+            case JasyptTokenCipher.NAME:
+                tokenCipher = jasyptTokenCipher;
+                break;
+            default:
+                logger.error("Unsupported value '{}' for property {}", encryptionAlgorithm, ENCRYPTION_ALGORITHM_PROPERTY);
+                throw new IllegalStateException("Unsupported value for property " + ENCRYPTION_ALGORITHM_PROPERTY);
+        }
+
+        // Signatures (the key is interpreted the same way jjwt does)
+        final Key key = new SecretKeySpec(TextCodec.BASE64.decode(signatureKey), SIGNATURE_ALGORITHM.getJcaName());
+        signatureValidator = new DefaultJwtSignatureValidator(SIGNATURE_ALGORITHM, key);
+        signer = new DefaultJwtSigner(SIGNATURE_ALGORITHM, key);
+        final StringBuilder header = new StringBuilder()
+                .append("{\"").append(JwsHeader.ALGORITHM).append("\":\"").append(SIGNATURE_ALGORITHM.getValue()).append('"');
+        if (compressionCodec != null) {
+            header.append(",\"").append(JwsHeader.COMPRESSION_ALGORITHM).append("\":\"")
+                    .append(compressionCodec.getAlgorithmName()).append('"');
+        }
+        encodedHeader = TextCodec.BASE64URL.encode(header.append('}').toString());
+
+        // Token reuse
+        if (tokenCacheSize > 0 && tokenExpirationBucketSeconds > 0L && isTokenReusable()) {
+            tokenCache = new ExpiringCache<>(tokenCacheSize);
+        }
+        if (parsedTokenCacheSize > 0 && isTokenReusable()) {
+            parsedTokenCache = new ExpiringCache<>(parsedTokenCacheSize);
+        }
+
+        // Metrics
+        metricsObjectName = MetricsRegistrar.register("TokenService", getClass().getSimpleName(), metrics);
+
+    }
+
+    @PreDestroy
+    public void destroy() {
+        MetricsRegistrar.unregister(metricsObjectName);
+        metricsObjectName = null;
+    }
+
+    /**
+     * Number of Jasypt encrypt & decrypt operations that had to wait for an
+     * encryptor, out of {@link #getJasyptOperations()}.
+     */
+    public long getJasyptContendedOperations() {
+        return jasyptTokenCipher.getContendedOperations();
+    }
+
+    public long getJasyptOperations() {
+        return jasyptTokenCipher.getOperations();
+    }
+
+    /**
+     * Indicates whether tokens issued by this service may be reused when the
+     * same content is requested again.  Subclasses whose content varies with
+     * every request should return false, so they don't fill the token cache
+     * (or, on the receiving end, the parsed token cache) with tokens that
+     * will never be seen again.
+     */
+    protected boolean isTokenReusable() {
+        return true;
     }
 
     protected Claims createClaims(Class<? extends ITokenizable> clazz, String username, Date expires) {
@@ -107,46 +344,383 @@ public class AbstractJwtService {
 
     }
 
+    /**
+     * Signs and encrypts the claims.  Tokens are reused when the same content
+     * (ignoring iat & jti) for the same user is requested again within the
+     * same expiration bucket;  in that case the expiration is rounded down to
+     * the bucket.
+     */
     protected String generateEncryptedToken(Claims claims) {
 
-        final String jwt = Jwts.builder()
-                .setClaims(claims)
-                .signWith(SignatureAlgorithm.HS512, signatureKey)
-                .compact();
+        final Date expires = claims.getExpiration();
+        if (tokenCache == null || expires == null) {
+            return signAndEncrypt(claims);
+        }
 
-        // Encryption
-        final String rslt = textEncryptor.encrypt(jwt);
+        final long bucketMillis = TimeUnit.SECONDS.toMillis(tokenExpirationBucketSeconds);
+        final long roundedExpires = (expires.getTime() / bucketMillis) * bucketMillis;
+        final long reuseUntil = roundedExpires - TOKEN_REUSE_MARGIN_MILLIS;
+        if (reuseUntil <= System.currentTimeMillis()) {
+            // Too close to expiring to be worth reusing
+            return signAndEncrypt(claims);
+        }
+
+        final String fingerprint = fingerprint(claims, roundedExpires);
+        if (fingerprint == null) {
+            return signAndEncrypt(claims);
+        }
+
+        String rslt = tokenCache.get(fingerprint);
+        if (rslt == null) {
+            claims.setExpiration(new Date(roundedExpires));
+            rslt = signAndEncrypt(claims);
+            tokenCache.put(fingerprint, rslt, reuseUntil);
+        } else {
+            logger.trace("Reusing token for fingerprint {}", fingerprint);
+            metrics.recordReused();
+        }
 
         return rslt;
 
     }
 
+    /**
+     * Like {@link #generateEncryptedToken(Claims)}, but the claims are
+     * written with a streaming generator instead of a generic
+     * <code>Claims</code> map.  Tokens are reused on the same terms;  the
+     * stable claims are fingerprinted as they are written, so the same
+     * content written in a different order is (only) not reused.
+     *
+     * @param content Writes the claims that are specific to the model object
+     */
+    protected final String generateEncryptedToken(Class<? extends ITokenizable> clazz, String username,
+            Date expires, ClaimsWriter content) {
+
+        // Reusable?
+        Date expiration = expires;
+        long reuseUntil = 0L;
+        if (tokenCache != null && expires != null) {
+            final long bucketMillis = TimeUnit.SECONDS.toMillis(tokenExpirationBucketSeconds);
+            final long roundedExpires = (expires.getTime() / bucketMillis) * bucketMillis;
+            if (roundedExpires - TOKEN_REUSE_MARGIN_MILLIS > System.currentTimeMillis()) {
+                expiration = new Date(roundedExpires);
+                reuseUntil = roundedExpires - TOKEN_REUSE_MARGIN_MILLIS;
+            }
+        }
+
+        final ByteArrayOutputStream claims = new ByteArrayOutputStream(512);
+        String fingerprint = null;
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(claims)) {
+
+            // Claims that are stable between requests come first...
+            generator.writeStartObject();
+            generator.writeStringField(JwtClaims.ISSUER.getName(), JWT_ISSUER);
+            if (username != null) {
+                generator.writeStringField(JwtClaims.SUBJECT.getName(), username);
+            }
+            if (expiration != null) {
+                generator.writeNumberField(JwtClaims.EXPIRATION_TIME.getName(),
+                        TimeUnit.MILLISECONDS.toSeconds(expiration.getTime()));
+            }
+            generator.writeStringField(JwtClaims.CLASS.getName(), clazz.getName());
+            content.writeClaims(generator);
+
+            // ...so they can be fingerprinted
+            if (reuseUntil != 0L) {
+                generator.flush();
+                fingerprint = DigestUtils.sha256Hex(claims.toByteArray());
+                final String rslt = tokenCache.get(fingerprint);
+                if (rslt != null) {
+                    logger.trace("Reusing token for fingerprint {}", fingerprint);
+                    metrics.recordReused();
+                    return rslt;
+                }
+            }
+
+            generator.writeNumberField(JwtClaims.ISSUED_AT.getName(),
+                    TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()));
+            generator.writeStringField(JwtClaims.JWT_ID.getName(), UUID.randomUUID().toString());
+            generator.writeEndObject();
+
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to write the claims of the token", e);
+        }
+
+        final String rslt = signAndEncrypt(claims.toByteArray());
+        if (fingerprint != null) {
+            tokenCache.put(fingerprint, rslt, reuseUntil);
+        }
+        return rslt;
+
+    }
+
+    /**
+     * @return The model object previously parsed from this token, or
+     * <code>null</code> if there isn't one (or it has expired)
+     */
+    protected final <T extends ITokenizable> T getParsedToken(String encryptedToken, Class<T> clazz) {
+        if (parsedTokenCache == null || encryptedToken == null) {
+            return null;
+        }
+        final ITokenizable rslt = parsedTokenCache.get(encryptedToken);
+        if (!clazz.isInstance(rslt)) {
+            return null;
+        }
+        metrics.recordParsedTokenCacheHit();
+        return clazz.cast(rslt);
+    }
+
+    /**
+     * Retains the model object parsed from its token until the token expires.
+     * Model objects are immutable, so they may be shared between requests.
+     */
+    protected final void cacheParsedToken(ITokenizable model, Date expires) {
+        if (parsedTokenCache != null && expires != null) {
+            parsedTokenCache.put(model.getEncryptedToken(), model, expires.getTime());
+        }
+    }
+
     protected Jws<Claims> parseEncrypteToken(String encryptedToken, Class<? extends ITokenizable> clazz) {
 
+        final long start = System.nanoTime();
+
         // Decryption
-        final String jwt = textEncryptor.decrypt(encryptedToken);
+        final String jwt = decrypt(encryptedToken);
 
         final Jws<Claims> rslt = Jwts.parser()
                 .setSigningKey(signatureKey)
                 .parseClaimsJws(jwt);
+        metrics.recordParsed(System.nanoTime() - start);
+
+        verifyClaims(clazz, (String) rslt.getBody().get(JwtClaims.CLASS.getName()),
+                rslt.getBody().getExpiration());
+
+        return rslt;
+
+    }
+
+    /**
+     * Decrypts the token and verifies its signature like
+     * {@link #parseEncrypteToken(String, Class)}, but returns the (JSON)
+     * claims without reading them into a generic <code>Claims</code> map;
+     * subclasses read them with a streaming parser directly into the model
+     * object, then call {@link #verifyClaims(Class, String, Date)}.
+     */
+    protected final byte[] decryptAndVerify(String encryptedToken) {
+
+        final long start = System.nanoTime();
+
+        // Decryption
+        final String jwt = decrypt(encryptedToken);
+
+        final int headerEnd = jwt.indexOf('.');
+        final int payloadEnd = jwt.lastIndexOf('.');
+        if (headerEnd < 1 || payloadEnd <= headerEnd || payloadEnd == jwt.length() - 1) {
+            throw new MalformedJwtException("The specified token is not a signed JWT");
+        }
+
+        // Header
+        String algorithm = null;
+        String compressionAlgorithm = null;
+        try (JsonParser parser = JSON_FACTORY.createParser(TextCodec.BASE64URL.decode(jwt.substring(0, headerEnd)))) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new MalformedJwtException("The JWT header is not a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String name = parser.getCurrentName();
+                parser.nextToken();
+                switch (name) {
+                    case JwsHeader.ALGORITHM:
+                        algorithm = parser.getValueAsString();
+                        break;
+                    case JwsHeader.COMPRESSION_ALGORITHM:
+                        compressionAlgorithm = parser.getValueAsString();
+                        break;
+                    default:
+                        parser.skipChildren();
+                        break;
+                }
+            }
+        } catch (IOException e) {
+            throw new MalformedJwtException("Unable to read the JWT header", e);
+        }
+
+        // Signature
+        if (!SIGNATURE_ALGORITHM.getValue().equals(algorithm)) {
+            throw new UnsupportedJwtException("Unsupported signature algorithm:  " + algorithm);
+        }
+        if (!signatureValidator.isValid(jwt.substring(0, payloadEnd), jwt.substring(payloadEnd + 1))) {
+            throw new SignatureException("JWT signature does not match locally computed signature");
+        }
+
+        // Claims
+        final byte[] payload = TextCodec.BASE64URL.decode(jwt.substring(headerEnd + 1, payloadEnd));
+        final byte[] rslt;
+        if (compressionAlgorithm == null) {
+            rslt = payload;
+        } else if (CompressionCodecs.DEFLATE.getAlgorithmName().equals(compressionAlgorithm)) {
+            rslt = CompressionCodecs.DEFLATE.decompress(payload);
+        } else if (CompressionCodecs.GZIP.getAlgorithmName().equals(compressionAlgorithm)) {
+            rslt = CompressionCodecs.GZIP.decompress(payload);
+        } else {
+            throw new UnsupportedJwtException("Unsupported compression algorithm:  " + compressionAlgorithm);
+        }
+        metrics.recordParsed(System.nanoTime() - start);
+        return rslt;
+
+    }
+
+    /**
+     * Rejects tokens that have expired or that represent a different class
+     * of model object.
+     */
+    protected final void verifyClaims(Class<? extends ITokenizable> clazz, String className, Date expires) {
 
         // Token expired?
-        final Date expires = rslt.getBody().getExpiration();
-        if (expires.before(new Date())) {
-            final String msg = "The specified token is expired:  " + rslt;
+        if (expires == null || expires.before(new Date())) {
+            final String msg = "The specified token is expired:  " + expires;
             throw new SecurityException(msg);
         }
 
         // Sanity check
-        final String s = (String) rslt.getBody().get(JwtClaims.CLASS.getName());
-        if (!clazz.getName().equals(s)) {
+        if (!clazz.getName().equals(className)) {
             // Opportunity for future versioning of the data model... needs work
-            String msg = "Token class mismatch;  expected '" + clazz.getName() + "' but was '" + s + "'";
+            String msg = "Token class mismatch;  expected '" + clazz.getName() + "' but was '" + className + "'";
             throw new RuntimeException(msg);
         }
 
+    }
+
+    /**
+     * Reads the current value (a string or an array of strings) as a list.
+     */
+    protected final List<String> readStrings(JsonParser parser) throws IOException {
+        if (parser.getCurrentToken() != JsonToken.START_ARRAY) {
+            return Collections.singletonList(parser.getValueAsString());
+        }
+        final List<String> rslt = new ArrayList<>();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            rslt.add(parser.getValueAsString());
+        }
+        return rslt;
+    }
+
+    /**
+     * Reads the current value as a NumericDate (seconds since the epoch).
+     */
+    protected final Date readDate(JsonParser parser) throws IOException {
+        return new Date(TimeUnit.SECONDS.toMillis(parser.getValueAsLong()));
+    }
+
+    /**
+     * Writes a list of strings as an array;  the counterpart of
+     * {@link #readStrings(JsonParser)}.
+     */
+    protected final void writeStrings(JsonGenerator generator, List<String> values) throws IOException {
+        generator.writeStartArray();
+        for (String value : values) {
+            generator.writeString(value);
+        }
+        generator.writeEndArray();
+    }
+
+    /*
+     * Implementation
+     */
+
+    /**
+     * @return A digest of the claims that are stable between requests, or
+     * <code>null</code> if they cannot be serialized
+     */
+    private String fingerprint(Claims claims, long roundedExpires) {
+        final Map<String,Object> stable = new TreeMap<>(claims);
+        stable.remove(JwtClaims.ISSUED_AT.getName());
+        stable.remove(JwtClaims.JWT_ID.getName());
+        stable.put(JwtClaims.EXPIRATION_TIME.getName(), roundedExpires);
+        try {
+            return DigestUtils.sha256Hex(FINGERPRINT_MAPPER.writeValueAsBytes(stable));
+        } catch (JsonProcessingException e) {
+            logger.warn("Failed to fingerprint claims;  the token will not be reused", e);
+            return null;
+        }
+    }
+
+    private AesGcmTokenCipher getAesGcmTokenCipher() {
+        AesGcmTokenCipher rslt = aesGcmTokenCipher;
+        if (rslt == null) {
+            synchronized (this) {
+                rslt = aesGcmTokenCipher;
+                if (rslt == null) {
+                    rslt = new AesGcmTokenCipher(encryptionPassword);
+                    aesGcmTokenCipher = rslt;
+                }
+            }
+        }
+        return rslt;
+    }
+
+    /**
+     * Tokens encrypted with either cipher are accepted, regardless of which
+     * one encrypts new tokens.
+     */
+    private String decrypt(String encryptedToken) {
+        return AesGcmTokenCipher.isAesGcmToken(encryptedToken)
+                ? getAesGcmTokenCipher().decrypt(encryptedToken)
+                : jasyptTokenCipher.decrypt(encryptedToken);
+    }
+
+    private String signAndEncrypt(Claims claims) {
+
+        final long start = System.nanoTime();
+
+        final JwtBuilder builder = Jwts.builder()
+                .setClaims(claims)
+                .signWith(SIGNATURE_ALGORITHM, signatureKey);
+        if (compressionCodec != null) {
+            builder.compressWith(compressionCodec);
+        }
+        final String jwt = builder.compact();
+
+        // Encryption
+        final String rslt = tokenCipher.encrypt(jwt);
+
+        metrics.recordCreated(System.nanoTime() - start);
         return rslt;
 
     }
 
+    /**
+     * Signs and encrypts claims written with a streaming generator the same
+     * way jjwt would.
+     */
+    private String signAndEncrypt(byte[] claims) {
+
+        final long start = System.nanoTime();
+
+        final byte[] payload = compressionCodec != null
+                ? compressionCodec.compress(claims)
+                : claims;
+        final String unsignedJwt = encodedHeader + '.' + TextCodec.BASE64URL.encode(payload);
+        final String jwt = unsignedJwt + '.' + signer.sign(unsignedJwt);
+
+        // Encryption
+        final String rslt = tokenCipher.encrypt(jwt);
+
+        metrics.recordCreated(System.nanoTime() - start);
+        return rslt;
+
+    }
+
+    /*
+     * Nested Types
+     */
+
+    /**
+     * Writes the claims that are specific to a model object (everything but
+     * the registered claims and the class) as fields of the claims object.
+     */
+    protected interface ClaimsWriter {
+        void writeClaims(JsonGenerator generator) throws IOException;
+    }
+
 }
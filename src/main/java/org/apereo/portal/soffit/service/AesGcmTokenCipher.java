@@ -0,0 +1,146 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apereo.portal.soffit.service;
+
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.codec.binary.Base64;
+
+/**
+ * Token cipher based on AES-GCM (authenticated encryption).  The key is
+ * derived from the password once (with PBKDF2), and each thread keeps its own
+ * <code>Cipher</code>, so encryption is cheap and uncontended;  most JVMs use
+ * AES-NI for it.  Encrypted tokens begin with a marker (which never appears in
+ * Jasypt output) followed by the URL-safe Base64 encoding of the IV and the
+ * ciphertext.<p>
+ *
+ * Requires a JVM that supports AES/GCM/NoPadding (Java 8 or later).
+ *
+ * @since 5.0
+ * @author agent
+ */
+public final class AesGcmTokenCipher implements ITokenCipher {
+
+    public static final String NAME = "aes-gcm";
+
+    /**
+     * Prepended to every token encrypted by this cipher.
+     */
+    public static final String TOKEN_PREFIX = "gcm1.";
+
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final String KEY_DERIVATION_ALGORITHM = "PBKDF2WithHmacSHA1";
+    private static final int KEY_DERIVATION_ITERATIONS = 65536;
+    private static final int KEY_LENGTH_BITS = 128;
+    private static final int IV_LENGTH_BYTES = 12;
+    private static final int TAG_LENGTH_BITS = 128;
+
+    /**
+     * The connector and the renderer must derive the same key from the same
+     * password, so the salt is fixed.
+     */
+    private static final byte[] KEY_DERIVATION_SALT = "org.apereo.portal.soffit".getBytes(Charset.forName("UTF-8"));
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final SecretKey key;
+    private final SecureRandom secureRandom = new SecureRandom();
+
+    private final ThreadLocal<Cipher> ciphers = new ThreadLocal<Cipher>() {
+        @Override
+        protected Cipher initialValue() {
+            try {
+                return Cipher.getInstance(TRANSFORMATION);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("This JVM does not support " + TRANSFORMATION, e);
+            }
+        }
+    };
+
+    /**
+     * Derives the key;  this operation is deliberately expensive, so create
+     * one instance and reuse it.
+     */
+    public AesGcmTokenCipher(String password) {
+        final PBEKeySpec keySpec = new PBEKeySpec(password.toCharArray(), KEY_DERIVATION_SALT,
+                KEY_DERIVATION_ITERATIONS, KEY_LENGTH_BITS);
+        try {
+            final SecretKeyFactory factory = SecretKeyFactory.getInstance(KEY_DERIVATION_ALGORITHM);
+            key = new SecretKeySpec(factory.generateSecret(keySpec).getEncoded(), "AES");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to derive the token encryption key", e);
+        } finally {
+            keySpec.clearPassword();
+        }
+        // Fail fast if GCM is unavailable
+        ciphers.get();
+    }
+
+    public static boolean isAesGcmToken(String encryptedToken) {
+        return encryptedToken != null && encryptedToken.startsWith(TOKEN_PREFIX);
+    }
+
+    @Override
+    public String encrypt(String token) {
+        final byte[] iv = new byte[IV_LENGTH_BYTES];
+        secureRandom.nextBytes(iv);
+        try {
+            final Cipher cipher = ciphers.get();
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH_BITS, iv));
+            final byte[] plaintext = token.getBytes(UTF_8);
+            final byte[] rslt = Arrays.copyOf(iv, IV_LENGTH_BYTES + cipher.getOutputSize(plaintext.length));
+            cipher.doFinal(plaintext, 0, plaintext.length, rslt, IV_LENGTH_BYTES);
+            return TOKEN_PREFIX + Base64.encodeBase64URLSafeString(rslt);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to encrypt the token", e);
+        }
+    }
+
+    @Override
+    public String decrypt(String encryptedToken) {
+        if (!isAesGcmToken(encryptedToken)) {
+            throw new SecurityException("The specified token was not encrypted with " + TRANSFORMATION);
+        }
+        final byte[] bytes = Base64.decodeBase64(encryptedToken.substring(TOKEN_PREFIX.length()));
+        if (bytes.length <= IV_LENGTH_BYTES) {
+            throw new SecurityException("The specified token is truncated");
+        }
+        try {
+            final Cipher cipher = ciphers.get();
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH_BITS, bytes, 0, IV_LENGTH_BYTES));
+            final byte[] rslt = cipher.doFinal(bytes, IV_LENGTH_BYTES, bytes.length - IV_LENGTH_BYTES);
+            return new String(rslt, UTF_8);
+        } catch (GeneralSecurityException e) {
+            // Including AEADBadTagException (the token was tampered with)
+            throw new SecurityException("Failed to decrypt the specified token", e);
+        }
+    }
+
+}
@@ -19,6 +19,7 @@
 
 package org.apereo.portal.soffit.service;
 
+import java.io.IOException;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
@@ -28,8 +29,12 @@ import java.util.Map;
 import org.apereo.portal.soffit.model.v1_0.Bearer;
 import org.springframework.stereotype.Service;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
 import io.jsonwebtoken.Claims;
-import io.jsonwebtoken.Jws;
+import io.jsonwebtoken.MalformedJwtException;
 
 /**
  * Responsible for issuing and parsing Bearer tokens.
@@ -39,7 +44,53 @@ import io.jsonwebtoken.Jws;
 @Service
 public class BearerService extends AbstractJwtService {
 
-    public Bearer createBearer(String username, Map<String,List<String>> attributes, List<String> groups, Date expires) {
+    public Bearer createBearer(String username, final Map<String,List<String>> attributes, final List<String> groups, Date expires) {
+
+        /*
+         * Bearer tokens grow with the user's attributes & groups, so we write
+         * the claims with a streaming generator directly from the model;
+         * they are the same claims createBearerClaims() produces.
+         */
+        final String encryptedToken = generateEncryptedToken(Bearer.class, username, expires, new ClaimsWriter() {
+            @Override
+            public void writeClaims(JsonGenerator generator) throws IOException {
+
+                // User attributes
+                for (Map.Entry<String,List<String>> y : attributes.entrySet()) {
+                    switch (y.getValue().size()) {
+                        case 0:
+                            // Do nothing...
+                            break;
+                        case 1:
+                            // Model as a single value
+                            generator.writeStringField(y.getKey(), y.getValue().get(0));
+                            break;
+                        default:
+                            generator.writeFieldName(y.getKey());
+                            writeStrings(generator, y.getValue());
+                            break;
+                    }
+                }
+
+                // Groups
+                if (groups != null) {
+                    generator.writeFieldName(JwtClaims.GROUPS.getName());
+                    writeStrings(generator, groups);
+                }
+
+            }
+        });
+
+        return new Bearer(encryptedToken, username, attributes, groups);
+
+    }
+
+    /**
+     * Produces the claims of a Bearer token as a generic <code>Claims</code>
+     * map;  the reference for the claims written by
+     * {@link #createBearer(String, Map, List, Date)}.
+     */
+    Claims createBearerClaims(String username, Map<String,List<String>> attributes, List<String> groups, Date expires) {
 
         final Claims claims = createClaims(Bearer.class, username, expires);
 
@@ -68,18 +119,85 @@ public class BearerService extends AbstractJwtService {
         // Groups
         claims.put(JwtClaims.GROUPS.getName(), groups);
 
-        return new Bearer(generateEncryptedToken(claims), username, attributes, groups);
+        return claims;
 
     }
 
     public Bearer parseBearerToken(String bearerToken) {
 
-        final Jws<Claims> claims = parseEncrypteToken(bearerToken, Bearer.class);
+        final Bearer cached = getParsedToken(bearerToken, Bearer.class);
+        if (cached != null) {
+            return cached;
+        }
+
+        /*
+         * Bearer tokens grow with the user's attributes & groups, so we read
+         * the claims with a streaming parser directly into the Bearer.
+         */
+        final byte[] claims = decryptAndVerify(bearerToken);
+
+        String className = null;
+        Date expires = null;
+        String username = null;
+        List<String> groups = null;
+        final Map<String,List<String>> attributes = new HashMap<>();
+        try (JsonParser parser = JSON_FACTORY.createParser(claims)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new MalformedJwtException("The claims of the Bearer token are not a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String name = parser.getCurrentName();
+                final JsonToken value = parser.nextToken();
+                final JwtClaims claim = JwtClaims.forName(name);
+                if (claim == null) {
+                    // User attribute
+                    if (value == JsonToken.START_ARRAY || value == JsonToken.VALUE_STRING) {
+                        attributes.put(name, readStrings(parser));
+                    } else {
+                        parser.skipChildren();
+                    }
+                    continue;
+                }
+                switch (claim) {
+                    case CLASS:
+                        className = parser.getValueAsString();
+                        break;
+                    case EXPIRATION_TIME:
+                        expires = readDate(parser);
+                        break;
+                    case SUBJECT:
+                        username = parser.getValueAsString();
+                        break;
+                    case GROUPS:
+                        groups = value == JsonToken.VALUE_NULL ? null : readStrings(parser);
+                        break;
+                    default:
+                        parser.skipChildren();
+                        break;
+                }
+            }
+        } catch (IOException e) {
+            throw new MalformedJwtException("Unable to read the claims of the Bearer token", e);
+        }
 
-        final String username = claims.getBody().getSubject();
+        verifyClaims(Bearer.class, className, expires);
+
+        Bearer rslt = new Bearer(bearerToken, username, attributes, groups);
+        logger.debug("Produced the following Bearer for user '{}':  {}", username, rslt);
+        cacheParsedToken(rslt, expires);
+        return rslt;
+
+    }
+
+    /**
+     * Produces the Bearer represented by (verified) claims.
+     */
+    Bearer toBearer(String encryptedToken, Claims claims) {
+
+        final String username = claims.getSubject();
 
         final Map<String,List<String>> attributes = new HashMap<>();
-        for (Map.Entry<String,Object> y : claims.getBody().entrySet()) {
+        for (Map.Entry<String,Object> y : claims.entrySet()) {
             final String key = y.getKey();
             if (JwtClaims.forName(key) != null) {
                 // Skip these;  we handle these differently
@@ -98,11 +216,9 @@ public class BearerService extends AbstractJwtService {
         }
 
         @SuppressWarnings("unchecked")
-        final List<String> groups = (List<String>) claims.getBody().get(JwtClaims.GROUPS.getName());
+        final List<String> groups = (List<String>) claims.get(JwtClaims.GROUPS.getName());
 
-        Bearer rslt = new Bearer(bearerToken, username, attributes, groups);
-        logger.debug("Produced the following Bearer for user '{}':  {}", username, rslt);
-        return rslt;
+        return new Bearer(encryptedToken, username, attributes, groups);
 
     }
 
@@ -64,6 +64,11 @@ public class DefinitionService extends AbstractJwtService {
 
     public Definition parseDefinition(String definitionToken) {
 
+        final Definition cached = getParsedToken(definitionToken, Definition.class);
+        if (cached != null) {
+            return cached;
+        }
+
         final Jws<Claims> claims = parseEncrypteToken(definitionToken, Definition.class);
 
         final String username = claims.getBody().getSubject();
@@ -87,6 +92,7 @@ public class DefinitionService extends AbstractJwtService {
 
         Definition rslt = new Definition(definitionToken, title, fname, description, categories, parameters);
         logger.debug("Produced the following Definition for user '{}':  {}", username, rslt);
+        cacheParsedToken(rslt, claims.getBody().getExpiration());
         return rslt;
 
     }
@@ -0,0 +1,143 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apereo.portal.soffit.service;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Simple, bounded, thread-safe cache in which each entry carries its own
+ * expiration.  Expired entries are dropped when they are looked up, and
+ * swept out (at most once every <code>maxSize</code> insertions) when the
+ * cache is full;  if that isn't enough, the least recently used entry is
+ * evicted.  (The services that use it must not depend on ehcache, because
+ * they run in soffits as well as in the portal.)
+ *
+ * @since 5.0
+ * @author agent
+ */
+public final class ExpiringCache<K,V> {
+
+    private final int maxSize;
+    private final Map<K,Entry<V>> entries;
+
+    /**
+     * Insertions since expired entries were last swept out;  guarded by
+     * <code>this</code>.
+     */
+    private int putsSinceSweep = 0;
+
+    /**
+     * @param maxSize Maximum number of entries;  must be greater than 0
+     */
+    public ExpiringCache(final int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Invalid maxSize:  " + maxSize);
+        }
+        this.maxSize = maxSize;
+        // Access order, so the eldest entry is the least recently used
+        this.entries = new LinkedHashMap<K,Entry<V>>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K,ExpiringCache.Entry<V>> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * @return The value, or <code>null</code> if it is absent or expired
+     */
+    public synchronized V get(K key) {
+        final Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.isExpired(System.currentTimeMillis())) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.getValue();
+    }
+
+    /**
+     * @param expires Point (in milliseconds since the epoch) after which the
+     * value will no longer be returned
+     */
+    public synchronized void put(K key, V value, long expires) {
+        if (++putsSinceSweep >= maxSize && entries.size() >= maxSize) {
+            sweep();
+        }
+        entries.put(key, new Entry<>(value, expires));
+    }
+
+    public synchronized void remove(K key) {
+        entries.remove(key);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /*
+     * Implementation
+     */
+
+    /**
+     * Removes expired entries, so they are evicted before live ones;  since
+     * this happens at most once every maxSize insertions, its cost is
+     * constant per insertion.
+     */
+    private void sweep() {
+        final long now = System.currentTimeMillis();
+        for (Iterator<Entry<V>> it = entries.values().iterator(); it.hasNext();) {
+            if (it.next().isExpired(now)) {
+                it.remove();
+            }
+        }
+        putsSinceSweep = 0;
+    }
+
+    /*
+     * Nested Types
+     */
+
+    private static final class Entry<V> {
+
+        private final V value;
+        private final long expires;
+
+        public Entry(V value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+
+        public V getValue() {
+            return value;
+        }
+
+        public boolean isExpired(long now) {
+            return now >= expires;
+        }
+
+    }
+
+}
@@ -0,0 +1,137 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apereo.portal.soffit.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.jasypt.exceptions.EncryptionOperationNotPossibleException;
+import org.jasypt.util.text.BasicTextEncryptor;
+
+/**
+ * The original token cipher, based on the Jasypt
+ * <code>BasicTextEncryptor</code> (PBEWithMD5AndDES).  Derives a key from the
+ * password (1000 iterations of MD5) on every operation, so it is much slower
+ * than the {@link AesGcmTokenCipher}, but it is supported everywhere.<p>
+ *
+ * Each Jasypt encryptor serializes its operations, so this cipher keeps a
+ * stripe of them (typically one per processor).  A thread uses the first
+ * free encryptor, starting with one chosen by its thread id, and only waits
+ * when all of them are busy;  those waits are counted.
+ *
+ * @since 5.0
+ * @author agent
+ */
+public final class JasyptTokenCipher implements ITokenCipher {
+
+    public static final String NAME = "jasypt";
+
+    /*
+     * NOTE:  There is also a StrongTextEncryptor, but it requires each deployment
+     * to download and install the "Java Cryptography Extension (JCE) Unlimited
+     * Strength Jurisdiction Policy Files," which sounds like a tremendous PITA.
+     * The BasicTextEncryptor supports "normal-strength encryption of texts,"
+     * which should be satisfactory for our needs.
+     */
+    private final BasicTextEncryptor[] textEncryptors;
+    private final ReentrantLock[] locks;
+
+    private final AtomicLong operations = new AtomicLong();
+    private final AtomicLong contendedOperations = new AtomicLong();
+
+    /**
+     * @param poolSize Number of encryptors;  0 (or less) means one per
+     * available processor
+     */
+    public JasyptTokenCipher(String password, int poolSize) {
+        final int size = poolSize > 0 ? poolSize : Runtime.getRuntime().availableProcessors();
+        textEncryptors = new BasicTextEncryptor[size];
+        locks = new ReentrantLock[size];
+        for (int i=0; i < size; i++) {
+            textEncryptors[i] = new BasicTextEncryptor();
+            textEncryptors[i].setPassword(password);
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    @Override
+    public String encrypt(String token) {
+        final int index = acquire();
+        try {
+            return textEncryptors[index].encrypt(token);
+        } finally {
+            locks[index].unlock();
+        }
+    }
+
+    @Override
+    public String decrypt(String encryptedToken) {
+        final int index = acquire();
+        try {
+            return textEncryptors[index].decrypt(encryptedToken);
+        } catch (EncryptionOperationNotPossibleException e) {
+            throw new SecurityException("Failed to decrypt the specified token", e);
+        } finally {
+            locks[index].unlock();
+        }
+    }
+
+    public int getPoolSize() {
+        return textEncryptors.length;
+    }
+
+    /**
+     * Total number of encrypt & decrypt operations.
+     */
+    public long getOperations() {
+        return operations.get();
+    }
+
+    /**
+     * Number of operations that had to wait because every encryptor was busy;
+     * if this value is a significant fraction of operations, increase the
+     * pool size.
+     */
+    public long getContendedOperations() {
+        return contendedOperations.get();
+    }
+
+    /*
+     * Implementation
+     */
+
+    /**
+     * @return The index of the encryptor (and lock) now held by this thread
+     */
+    private int acquire() {
+        operations.incrementAndGet();
+        final int home = (int) (Thread.currentThread().getId() % locks.length);
+        for (int i=0; i < locks.length; i++) {
+            final int index = (home + i) % locks.length;
+            if (locks[index].tryLock()) {
+                return index;
+            }
+        }
+        contendedOperations.incrementAndGet();
+        locks[home].lock();
+        return home;
+    }
+
+}
@@ -19,6 +19,10 @@
 
 package org.apereo.portal.soffit.service;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * Set of all the JWT claims in use within Soffit.
  *
@@ -100,6 +104,19 @@ public enum JwtClaims {
      * Implementation
      */
 
+    /**
+     * Claims by name;  forName() is called for every claim of every token
+     * parsed, so it shouldn't scan (or copy) values().
+     */
+    private static final Map<String,JwtClaims> BY_NAME;
+    static {
+        final Map<String,JwtClaims> map = new HashMap<>();
+        for (JwtClaims claim : JwtClaims.values()) {
+            map.put(claim.getName(), claim);
+        }
+        BY_NAME = Collections.unmodifiableMap(map);
+    }
+
     private final String name;
 
     private JwtClaims(String name) {
@@ -107,13 +124,7 @@ public enum JwtClaims {
     }
 
     public static JwtClaims forName(String name) {
-        JwtClaims rslt = null;  // default
-        for (JwtClaims claim : JwtClaims.values()) {
-            if (claim.getName().equals(name)) {
-                rslt = claim;
-            }
-        }
-        return rslt;
+        return BY_NAME.get(name);
     }
 
     public String getName() {
@@ -38,6 +38,15 @@ import io.jsonwebtoken.Jws;
 @Service
 public class PortalRequestService extends AbstractJwtService {
 
+    /**
+     * The PortalRequest includes request parameters (and the like), which
+     * are rarely the same twice.
+     */
+    @Override
+    protected boolean isTokenReusable() {
+        return false;
+    }
+
     public PortalRequest createPortalRequest(Map<String,String> properties,
             Map<String,List<String>> attributes, Map<String,List<String>> parameters,
             String username, Date expires) {
@@ -59,6 +68,11 @@ public class PortalRequestService extends AbstractJwtService {
 
     public PortalRequest parsePortalRequest(String portalRequestToken) {
 
+        final PortalRequest cached = getParsedToken(portalRequestToken, PortalRequest.class);
+        if (cached != null) {
+            return cached;
+        }
+
         final Jws<Claims> claims = parseEncrypteToken(portalRequestToken, PortalRequest.class);
 
         final String username = claims.getBody().getSubject();
@@ -77,6 +91,7 @@ public class PortalRequestService extends AbstractJwtService {
 
         PortalRequest rslt = new PortalRequest(portalRequestToken, properties, attributes, parameters);
         logger.debug("Produced the following PortalRequest for user '{}':  {}", username, rslt);
+        cacheParsedToken(rslt, claims.getBody().getExpiration());
         return rslt;
 
     }
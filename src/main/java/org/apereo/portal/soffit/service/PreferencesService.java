@@ -19,6 +19,7 @@
 
 package org.apereo.portal.soffit.service;
 
+import java.io.IOException;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -27,8 +28,12 @@ import java.util.Map;
 import org.apereo.portal.soffit.model.v1_0.Preferences;
 import org.springframework.stereotype.Service;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
 import io.jsonwebtoken.Claims;
-import io.jsonwebtoken.Jws;
+import io.jsonwebtoken.MalformedJwtException;
 
 /**
  * Responsible for issuing and parsing the collection of preferences.
@@ -38,7 +43,29 @@ import io.jsonwebtoken.Jws;
 @Service
 public class PreferencesService extends AbstractJwtService {
 
-    public Preferences createPreferences(Map<String,List<String>> preferencesMap, String username, Date expires) {
+    public Preferences createPreferences(final Map<String,List<String>> preferencesMap, String username, Date expires) {
+
+        // Write the claims with a streaming generator directly from the preferencesMap
+        final String encryptedToken = generateEncryptedToken(Preferences.class, username, expires, new ClaimsWriter() {
+            @Override
+            public void writeClaims(JsonGenerator generator) throws IOException {
+                for (Map.Entry<String,List<String>> y : preferencesMap.entrySet()) {
+                    generator.writeFieldName(y.getKey());
+                    writeStrings(generator, y.getValue());
+                }
+            }
+        });
+
+        return new Preferences(encryptedToken, preferencesMap);
+
+    }
+
+    /**
+     * Produces the claims of a Preferences token as a generic
+     * <code>Claims</code> map;  the reference for the claims written by
+     * {@link #createPreferences(Map, String, Date)}.
+     */
+    Claims createPreferencesClaims(Map<String,List<String>> preferencesMap, String username, Date expires) {
 
         final Claims claims = createClaims(Preferences.class, username, expires);
 
@@ -47,18 +74,77 @@ public class PreferencesService extends AbstractJwtService {
             claims.put(y.getKey(), y.getValue());
         }
 
-        return new Preferences(generateEncryptedToken(claims), preferencesMap);
+        return claims;
 
     }
 
     public Preferences parsePreferences(String preferencesToken) {
 
-        final Jws<Claims> claims = parseEncrypteToken(preferencesToken, Preferences.class);
+        final Preferences cached = getParsedToken(preferencesToken, Preferences.class);
+        if (cached != null) {
+            return cached;
+        }
+
+        // Read the claims with a streaming parser directly into the Preferences
+        final byte[] claims = decryptAndVerify(preferencesToken);
+
+        String className = null;
+        Date expires = null;
+        String username = null;
+        final Map<String,List<String>> preferencesMap = new HashMap<>();
+        try (JsonParser parser = JSON_FACTORY.createParser(claims)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new MalformedJwtException("The claims of the Preferences token are not a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String name = parser.getCurrentName();
+                final JsonToken value = parser.nextToken();
+                final JwtClaims claim = JwtClaims.forName(name);
+                if (claim == null) {
+                    // Preference
+                    if (value == JsonToken.START_ARRAY) {
+                        preferencesMap.put(name, readStrings(parser));
+                    } else {
+                        logger.warn("Unexpected claim '{}' was not a List;  skipping", name);
+                        parser.skipChildren();
+                    }
+                    continue;
+                }
+                switch (claim) {
+                    case CLASS:
+                        className = parser.getValueAsString();
+                        break;
+                    case EXPIRATION_TIME:
+                        expires = readDate(parser);
+                        break;
+                    case SUBJECT:
+                        username = parser.getValueAsString();
+                        break;
+                    default:
+                        parser.skipChildren();
+                        break;
+                }
+            }
+        } catch (IOException e) {
+            throw new MalformedJwtException("Unable to read the claims of the Preferences token", e);
+        }
+
+        verifyClaims(Preferences.class, className, expires);
+
+        Preferences rslt = new Preferences(preferencesToken, preferencesMap);
+        logger.debug("Produced the following Preferences for user '{}':  {}", username, rslt);
+        cacheParsedToken(rslt, expires);
+        return rslt;
+
+    }
 
-        final String username = claims.getBody().getSubject();
+    /**
+     * Produces the Preferences represented by (verified) claims.
+     */
+    Preferences toPreferences(String encryptedToken, Claims claims) {
 
         final Map<String,List<String>> preferencesMap = new HashMap<>();
-        for (Map.Entry<String,Object> y : claims.getBody().entrySet()) {
+        for (Map.Entry<String,Object> y : claims.entrySet()) {
             final String key = y.getKey();
             if (JwtClaims.forName(key) != null) {
                 // Skip these;  we handle these differently
@@ -74,9 +160,7 @@ public class PreferencesService extends AbstractJwtService {
             }
         }
 
-        Preferences rslt = new Preferences(preferencesToken, preferencesMap);
-        logger.debug("Produced the following Preferences for user '{}':  {}", username, rslt);
-        return rslt;
+        return new Preferences(encryptedToken, preferencesMap);
 
     }
 
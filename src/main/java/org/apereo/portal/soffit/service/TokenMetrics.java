@@ -0,0 +1,109 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apereo.portal.soffit.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apereo.portal.soffit.metrics.Histogram;
+
+/**
+ * Collects the metrics of an {@link AbstractJwtService}.
+ *
+ * @since 5.0
+ * @author agent
+ */
+public final class TokenMetrics implements TokenMetricsMXBean {
+
+    private final AbstractJwtService service;
+
+    private final AtomicLong tokensCreated = new AtomicLong();
+    private final AtomicLong tokensReused = new AtomicLong();
+    private final Histogram createLatency = new Histogram();
+    private final AtomicLong tokensParsed = new AtomicLong();
+    private final AtomicLong parsedTokenCacheHits = new AtomicLong();
+    private final Histogram parseLatency = new Histogram();
+
+    TokenMetrics(AbstractJwtService service) {
+        this.service = service;
+    }
+
+    @Override
+    public long getTokensCreated() {
+        return tokensCreated.get();
+    }
+
+    @Override
+    public long getTokensReused() {
+        return tokensReused.get();
+    }
+
+    @Override
+    public Histogram getCreateLatency() {
+        return createLatency;
+    }
+
+    @Override
+    public long getTokensParsed() {
+        return tokensParsed.get();
+    }
+
+    @Override
+    public long getParsedTokenCacheHits() {
+        return parsedTokenCacheHits.get();
+    }
+
+    @Override
+    public Histogram getParseLatency() {
+        return parseLatency;
+    }
+
+    @Override
+    public long getJasyptOperations() {
+        return service.getJasyptOperations();
+    }
+
+    @Override
+    public long getJasyptContendedOperations() {
+        return service.getJasyptContendedOperations();
+    }
+
+    /*
+     * Implementation
+     */
+
+    void recordCreated(long nanos) {
+        tokensCreated.incrementAndGet();
+        createLatency.record(nanos);
+    }
+
+    void recordReused() {
+        tokensReused.incrementAndGet();
+    }
+
+    void recordParsed(long nanos) {
+        tokensParsed.incrementAndGet();
+        parseLatency.record(nanos);
+    }
+
+    void recordParsedTokenCacheHit() {
+        parsedTokenCacheHits.incrementAndGet();
+    }
+
+}
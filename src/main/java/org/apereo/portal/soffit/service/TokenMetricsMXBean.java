@@ -0,0 +1,71 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apereo.portal.soffit.service;
+
+import org.apereo.portal.soffit.metrics.Histogram;
+
+/**
+ * Metrics of a JWT service, published over JMX as
+ * <code>org.apereo.portal.soffit:type=TokenService,name=&lt;service&gt;</code>.
+ *
+ * @since 5.0
+ * @author agent
+ */
+public interface TokenMetricsMXBean {
+
+    /**
+     * Tokens signed & encrypted (not counting reused tokens).
+     */
+    long getTokensCreated();
+
+    /**
+     * Tokens issued again from the token cache instead of being created.
+     */
+    long getTokensReused();
+
+    /**
+     * Time to sign & encrypt a token.
+     */
+    Histogram getCreateLatency();
+
+    /**
+     * Tokens decrypted & verified (not counting those found in the parsed
+     * token cache).
+     */
+    long getTokensParsed();
+
+    /**
+     * Tokens found in the parsed token cache.
+     */
+    long getParsedTokenCacheHits();
+
+    /**
+     * Time to decrypt & verify a token.
+     */
+    Histogram getParseLatency();
+
+    long getJasyptOperations();
+
+    /**
+     * Jasypt operations that had to wait for an encryptor.
+     */
+    long getJasyptContendedOperations();
+
+}
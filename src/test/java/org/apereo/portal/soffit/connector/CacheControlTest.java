@@ -0,0 +1,111 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apereo.portal.soffit.connector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class CacheControlTest {
+
+    @Test
+    public void absentHeader() {
+        final CacheControl cacheControl = CacheControl.parse((String[]) null);
+        assertFalse(cacheControl.isPublic());
+        assertFalse(cacheControl.isNoStore());
+        assertEquals(CacheControl.ABSENT, cacheControl.getMaxAge());
+        assertEquals(CacheControl.ABSENT, cacheControl.getSharedMaxAge());
+    }
+
+    @Test
+    public void directives() {
+        final CacheControl cacheControl = CacheControl.parse(
+                "public, max-age=300, s-maxage=\"600\", must-revalidate, stale-while-revalidate=30, stale-if-error=86400");
+        assertTrue(cacheControl.isPublic());
+        assertTrue(cacheControl.isMustRevalidate());
+        assertEquals(300, cacheControl.getMaxAge());
+        assertEquals(600, cacheControl.getSharedMaxAge());
+        assertEquals(30, cacheControl.getStaleWhileRevalidate());
+        assertEquals(86400, cacheControl.getStaleIfError());
+    }
+
+    @Test
+    public void namesAreCaseInsensitive() {
+        final CacheControl cacheControl = CacheControl.parse("No-Store,PRIVATE , Max-Age = 5");
+        assertTrue(cacheControl.isNoStore());
+        assertTrue(cacheControl.isPrivate());
+        assertEquals(5, cacheControl.getMaxAge());
+    }
+
+    @Test
+    public void qualifiedFormsAreUnqualified() {
+        final CacheControl cacheControl = CacheControl.parse("private=\"Set-Cookie, Vary\", no-cache=\"Set-Cookie\"");
+        assertTrue(cacheControl.isPrivate());
+        assertTrue(cacheControl.isNoCache());
+        assertEquals(CacheControl.ABSENT, cacheControl.getMaxAge());
+    }
+
+    @Test
+    public void whitespaceSeparatesDirectives() {
+        final CacheControl cacheControl = CacheControl.parse("public max-age=300\tmust-revalidate");
+        assertTrue(cacheControl.isPublic());
+        assertEquals(300, cacheControl.getMaxAge());
+        assertTrue(cacheControl.isMustRevalidate());
+    }
+
+    @Test
+    public void quotedValuesMayContainSeparators() {
+        final CacheControl cacheControl = CacheControl.parse(
+                "private=\"Set-Cookie, max-age=5 no-store\", max-age=60 no-cache=\"Vary\" s-maxage=120");
+        assertTrue(cacheControl.isPrivate());
+        assertFalse(cacheControl.isNoStore());
+        assertEquals(60, cacheControl.getMaxAge());
+        assertTrue(cacheControl.isNoCache());
+        assertEquals(120, cacheControl.getSharedMaxAge());
+    }
+
+    @Test
+    public void invalidDeltaSecondsAreStale() {
+        assertEquals(0, CacheControl.parse("max-age").getMaxAge());
+        assertEquals(0, CacheControl.parse("max-age=").getMaxAge());
+        assertEquals(0, CacheControl.parse("max-age=-1").getMaxAge());
+        assertEquals(0, CacheControl.parse("max-age=1h").getMaxAge());
+    }
+
+    @Test
+    public void largeDeltaSecondsAreCapped() {
+        assertEquals(Integer.MAX_VALUE, CacheControl.parse("max-age=99999999999999999999").getMaxAge());
+    }
+
+    @Test
+    public void lastRepeatedDirectiveWins() {
+        assertEquals(20, CacheControl.parse("max-age=10", "foo, max-age=20").getMaxAge());
+    }
+
+    @Test
+    public void unrecognizedDirectivesAreIgnored() {
+        final CacheControl cacheControl = CacheControl.parse("community=\"UCI\", immutable, max-age=60");
+        assertEquals(60, cacheControl.getMaxAge());
+        assertFalse(cacheControl.isNoCache());
+    }
+
+}
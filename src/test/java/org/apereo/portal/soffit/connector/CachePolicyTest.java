@@ -0,0 +1,154 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apereo.portal.soffit.connector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.Test;
+
+public class CachePolicyTest {
+
+    private static final long NOW = System.currentTimeMillis();
+
+    @Test
+    public void maxAgeIsFreshForItsValue() {
+        final CachePolicy cachePolicy = evaluate(createResponse("max-age=300"));
+        assertTrue(cachePolicy.isStorable());
+        assertFalse(cachePolicy.isShareable());
+        assertEquals(300, cachePolicy.getFreshSeconds());
+    }
+
+    @Test
+    public void sharedMaxAgeAppliesOnlyToSharedResponses() {
+        final CachePolicy cachePolicy = evaluate(createResponse("max-age=60, s-maxage=600"));
+        assertTrue(cachePolicy.isShareable());
+        assertEquals(600, cachePolicy.getFreshSeconds());
+        final CachePolicy privatePolicy = evaluate(createResponse("private, max-age=60, s-maxage=600"));
+        assertFalse(privatePolicy.isShareable());
+        assertEquals(60, privatePolicy.getFreshSeconds());
+    }
+
+    @Test
+    public void ageIsSubtracted() {
+        final HttpResponse httpResponse = createResponse("public, max-age=300");
+        httpResponse.setHeader("Age", "100");
+        assertEquals(200, evaluate(httpResponse).getFreshSeconds());
+    }
+
+    @Test
+    public void apparentAgeIsSubtracted() {
+        final HttpResponse httpResponse = createResponse("public, max-age=300");
+        httpResponse.setHeader("Date", DateUtils.formatDate(new Date(NOW - TimeUnit.SECONDS.toMillis(120L))));
+        assertEquals(180, evaluate(httpResponse).getFreshSeconds());
+    }
+
+    @Test
+    public void expiresIsRelativeToDate() {
+        final HttpResponse httpResponse = createResponse(null);
+        httpResponse.setHeader("Date", DateUtils.formatDate(new Date(NOW)));
+        httpResponse.setHeader("Expires", DateUtils.formatDate(new Date(NOW + TimeUnit.MINUTES.toMillis(10L))));
+        final CachePolicy cachePolicy = evaluate(httpResponse);
+        assertTrue(cachePolicy.isStorable());
+        assertEquals(600, cachePolicy.getFreshSeconds());
+    }
+
+    @Test
+    public void invalidExpiresIsStale() {
+        final HttpResponse httpResponse = createResponse(null);
+        httpResponse.setHeader("Expires", "0");
+        httpResponse.setHeader("ETag", "\"v1\"");
+        final CachePolicy cachePolicy = evaluate(httpResponse);
+        assertTrue(cachePolicy.isStorable());
+        assertEquals(0, cachePolicy.getFreshSeconds());
+    }
+
+    @Test
+    public void noStoreIsNotStorable() {
+        final HttpResponse httpResponse = createResponse("no-store, max-age=300");
+        httpResponse.setHeader("ETag", "\"v1\"");
+        assertFalse(evaluate(httpResponse).isStorable());
+    }
+
+    @Test
+    public void noCacheMustAlwaysBeRevalidated() {
+        assertFalse(evaluate(createResponse("no-cache, max-age=300")).isStorable());
+        final HttpResponse httpResponse = createResponse("no-cache, max-age=300");
+        httpResponse.setHeader("Last-Modified", DateUtils.formatDate(new Date(NOW)));
+        final CachePolicy cachePolicy = evaluate(httpResponse);
+        assertTrue(cachePolicy.isStorable());
+        assertEquals(0, cachePolicy.getFreshSeconds());
+    }
+
+    @Test
+    public void pragmaIsIgnoredWithCacheControl() {
+        final HttpResponse httpResponse = createResponse("max-age=300");
+        httpResponse.setHeader("Pragma", "no-cache");
+        assertEquals(300, evaluate(httpResponse).getFreshSeconds());
+        final HttpResponse pragmaOnly = createResponse(null);
+        pragmaOnly.setHeader("Pragma", "no-cache");
+        pragmaOnly.setHeader("Expires", DateUtils.formatDate(new Date(NOW + TimeUnit.MINUTES.toMillis(10L))));
+        assertFalse(evaluate(pragmaOnly).isStorable());
+    }
+
+    @Test
+    public void withoutFreshnessOrValidatorsIsNotStorable() {
+        assertFalse(evaluate(createResponse(null)).isStorable());
+    }
+
+    @Test
+    public void mustRevalidateDisablesStaleExtensions() {
+        final CachePolicy cachePolicy = evaluate(createResponse(
+                "max-age=60, stale-while-revalidate=30, stale-if-error=600"));
+        assertEquals(30, cachePolicy.getStaleWhileRevalidateSeconds());
+        assertEquals(600, cachePolicy.getStaleIfErrorSeconds());
+        final CachePolicy mustRevalidate = evaluate(createResponse(
+                "max-age=60, must-revalidate, stale-while-revalidate=30, stale-if-error=600"));
+        assertTrue(mustRevalidate.isShareable());
+        assertEquals(0, mustRevalidate.getStaleWhileRevalidateSeconds());
+        assertEquals(0, mustRevalidate.getStaleIfErrorSeconds());
+    }
+
+    /*
+     * Implementation
+     */
+
+    private HttpResponse createResponse(String cacheControl) {
+        final HttpResponse rslt = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+        if (cacheControl != null) {
+            rslt.setHeader("Cache-Control", cacheControl);
+        }
+        return rslt;
+    }
+
+    private CachePolicy evaluate(HttpResponse httpResponse) {
+        return CachePolicy.evaluate(httpResponse, NOW, NOW);
+    }
+
+}
@@ -0,0 +1,96 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apereo.portal.soffit.connector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+
+    private static final long LONG_OPEN_MILLIS = TimeUnit.MINUTES.toMillis(5L);
+
+    @Test
+    public void opensAfterConsecutiveFailures() {
+        final CircuitBreaker circuitBreaker = new CircuitBreaker(3, LONG_OPEN_MILLIS);
+        circuitBreaker.recordFailure();
+        circuitBreaker.recordFailure();
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        assertTrue(circuitBreaker.allowRequest());
+        circuitBreaker.recordFailure();
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        assertFalse(circuitBreaker.allowRequest());
+    }
+
+    @Test
+    public void successResetsTheCount() {
+        final CircuitBreaker circuitBreaker = new CircuitBreaker(2, LONG_OPEN_MILLIS);
+        circuitBreaker.recordFailure();
+        circuitBreaker.recordSuccess();
+        circuitBreaker.recordFailure();
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+    }
+
+    @Test
+    public void neverOpensWithoutThreshold() {
+        final CircuitBreaker circuitBreaker = new CircuitBreaker(0, LONG_OPEN_MILLIS);
+        for (int i = 0; i < 100; i++) {
+            circuitBreaker.recordFailure();
+        }
+        assertTrue(circuitBreaker.allowRequest());
+    }
+
+    @Test
+    public void halfOpenAllowsOneTrial() {
+        final CircuitBreaker circuitBreaker = new CircuitBreaker(1, 0L);
+        circuitBreaker.recordFailure();
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+        assertTrue(circuitBreaker.allowRequest());
+        assertFalse(circuitBreaker.allowRequest());
+    }
+
+    @Test
+    public void successfulTrialCloses() {
+        final CircuitBreaker circuitBreaker = new CircuitBreaker(1, 0L);
+        circuitBreaker.recordFailure();
+        assertTrue(circuitBreaker.allowRequest());
+        circuitBreaker.recordSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        assertTrue(circuitBreaker.allowRequest());
+        assertTrue(circuitBreaker.allowRequest());
+    }
+
+    @Test
+    public void failedTrialReopens() throws InterruptedException {
+        final long openMillis = 100L;
+        final CircuitBreaker circuitBreaker = new CircuitBreaker(1, openMillis);
+        circuitBreaker.recordFailure();
+        Thread.sleep(openMillis + 50L);
+        assertTrue(circuitBreaker.allowRequest());
+        circuitBreaker.recordFailure();
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        assertFalse(circuitBreaker.allowRequest());
+    }
+
+}
@@ -0,0 +1,105 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apereo.portal.soffit.connector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ConcurrencyLimiterTest {
+
+    private static final long TARGET_LATENCY_MILLIS = 1000L;
+
+    @Test
+    public void rejectsOverTheLimit() {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 1, 10, TARGET_LATENCY_MILLIS, 0.5);
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+        limiter.cancel();
+        assertTrue(limiter.tryAcquire());
+        assertEquals(2, limiter.getInFlight());
+    }
+
+    @Test
+    public void failuresAndSlowResponsesBackOff() {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(8, 1, 10, TARGET_LATENCY_MILLIS, 0.5);
+        limiter.tryAcquire();
+        limiter.release(10L, false);
+        assertEquals(4, limiter.getLimit());
+        limiter.tryAcquire();
+        limiter.release(TARGET_LATENCY_MILLIS + 1L, true);
+        assertEquals(2, limiter.getLimit());
+    }
+
+    @Test
+    public void neverDropsBelowMinimum() {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(4, 3, 10, TARGET_LATENCY_MILLIS, 0.5);
+        for (int i = 0; i < 5; i++) {
+            limiter.tryAcquire();
+            limiter.release(10L, false);
+        }
+        assertEquals(3, limiter.getLimit());
+    }
+
+    @Test
+    public void growsOnlyWhenConstrained() {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 1, 3, TARGET_LATENCY_MILLIS, 0.5);
+
+        // One request at a time never reaches the limit
+        for (int i = 0; i < 10; i++) {
+            limiter.tryAcquire();
+            limiter.release(10L, true);
+        }
+        assertEquals(2, limiter.getLimit());
+
+        // Saturated:  roughly one more per window of requests, up to the maximum
+        limiter.tryAcquire();
+        for (int i = 0; i < 10; i++) {
+            while (limiter.tryAcquire()) {
+                // Fill the remaining slots
+            }
+            limiter.release(10L, true);
+        }
+        assertEquals(3, limiter.getLimit());
+    }
+
+    @Test
+    public void cancelDoesNotAdjustTheLimit() {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 1, 10, TARGET_LATENCY_MILLIS, 0.5);
+        limiter.tryAcquire();
+        limiter.cancel();
+        assertEquals(2, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void rejectsInvalidLimits() {
+        new ConcurrencyLimiter(2, 5, 4, TARGET_LATENCY_MILLIS, 0.5);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void rejectsInvalidBackoffRatio() {
+        new ConcurrencyLimiter(2, 1, 4, TARGET_LATENCY_MILLIS, 1.0);
+    }
+
+}
@@ -0,0 +1,122 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apereo.portal.soffit.renderer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apereo.portal.soffit.Headers;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ConditionalRequestFilterTest {
+
+    private static final byte[] BODY = "<h2>Hello World!</h2>".getBytes();
+
+    @Mock private HttpServletRequest req;
+    @Mock private HttpServletResponse res;
+
+    private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+    private final ConditionalRequestFilter filter = new ConditionalRequestFilter();
+
+    @Before
+    public void setUp() throws IOException {
+        when(req.getMethod()).thenReturn("GET");
+        when(req.getHeader(Headers.PORTAL_REQUEST.getName())).thenReturn("token");
+        when(res.getOutputStream()).thenReturn(new ServletOutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                written.write(b);
+            }
+        });
+    }
+
+    @Test
+    public void noStoreResponsesAreStreamed() throws Exception {
+        filter.doFilter(req, res, new FilterChain() {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response) throws IOException, ServletException {
+                ((HttpServletResponse) response).setHeader(Headers.CACHE_CONTROL.getName(), "no-store");
+                response.getOutputStream().write(BODY);
+                // Written before the chain returns
+                assertArrayEquals(BODY, written.toByteArray());
+            }
+        });
+        verify(res, never()).setHeader(eq(Headers.ETAG.getName()), anyString());
+        assertArrayEquals(BODY, written.toByteArray());
+    }
+
+    @Test
+    public void cacheableResponsesHaveAnETag() throws Exception {
+        filter.doFilter(req, res, new RenderingFilterChain("public, max-age=300"));
+        final ArgumentCaptor<String> etag = ArgumentCaptor.forClass(String.class);
+        verify(res).setHeader(eq(Headers.ETAG.getName()), etag.capture());
+        assertArrayEquals(BODY, written.toByteArray());
+
+        // Again, with the ETag
+        written.reset();
+        when(req.getHeader(Headers.IF_NONE_MATCH.getName())).thenReturn(etag.getValue());
+        filter.doFilter(req, res, new RenderingFilterChain("public, max-age=300"));
+        verify(res).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        assertEquals(0, written.size());
+    }
+
+    /*
+     * Nested Types
+     */
+
+    private static final class RenderingFilterChain implements FilterChain {
+
+        private final String cacheControl;
+
+        public RenderingFilterChain(String cacheControl) {
+            this.cacheControl = cacheControl;
+        }
+
+        @Override
+        public void doFilter(ServletRequest request, ServletResponse response) throws IOException, ServletException {
+            ((HttpServletResponse) response).setHeader(Headers.CACHE_CONTROL.getName(), cacheControl);
+            response.getOutputStream().write(BODY);
+        }
+
+    }
+
+}
@@ -0,0 +1,125 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apereo.portal.soffit.renderer;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apereo.portal.soffit.Headers;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+@RunWith(MockitoJUnitRunner.class)
+public class DeadlineFilterTest {
+
+    @Mock private HttpServletRequest req;
+    @Mock private HttpServletResponse res;
+
+    private final Map<String,Object> attributes = new HashMap<>();
+    private final DeadlineFilter filter = new DeadlineFilter();
+
+    @Before
+    public void setUp() {
+        when(req.getAttribute(anyString())).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                return attributes.get(invocation.getArguments()[0]);
+            }
+        });
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                attributes.put((String) invocation.getArguments()[0], invocation.getArguments()[1]);
+                return null;
+            }
+        }).when(req).setAttribute(anyString(), any());
+    }
+
+    @Test
+    public void deadlineIsRelativeToArrival() throws Exception {
+        when(req.getHeader(Headers.TIMEOUT.getName())).thenReturn("60000");
+        filter.doFilter(req, res, new FilterChain() {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response) throws IOException, ServletException {
+                final long remaining = DeadlineFilter.getDeadline(req) - System.currentTimeMillis();
+                assertTrue(remaining > 50000L && remaining <= 60000L);
+                assertFalse(DeadlineFilter.isPastDeadline(req));
+            }
+        });
+    }
+
+    @Test
+    public void requestsRunPastTheirDeadline() throws Exception {
+        when(req.getHeader(Headers.TIMEOUT.getName())).thenReturn("1");
+        filter.doFilter(req, res, new FilterChain() {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response) throws IOException, ServletException {
+                try {
+                    Thread.sleep(10L);
+                } catch (InterruptedException e) {
+                    throw new ServletException(e);
+                }
+                assertTrue(DeadlineFilter.isPastDeadline(req));
+            }
+        });
+    }
+
+    @Test
+    public void invalidTimeoutsAreIgnored() throws Exception {
+        when(req.getHeader(Headers.TIMEOUT.getName())).thenReturn("1476806400000L");
+        filter.doFilter(req, res, new FilterChain() {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response) throws IOException, ServletException {
+                assertNull(DeadlineFilter.getDeadline(req));
+                assertFalse(DeadlineFilter.isPastDeadline(req));
+            }
+        });
+    }
+
+    @Test
+    public void abandonedRequestsAreMarked() {
+        DeadlineFilter.abandon(res);
+        verify(res).setHeader(Headers.ABANDONED.getName(), "true");
+        verify(res).setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+    }
+
+}
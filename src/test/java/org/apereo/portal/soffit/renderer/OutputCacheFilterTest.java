@@ -0,0 +1,191 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apereo.portal.soffit.renderer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apereo.portal.soffit.Headers;
+import org.apereo.portal.soffit.renderer.CachePolicyRegistry.CachePolicy;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+import org.springframework.core.env.Environment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+@RunWith(MockitoJUnitRunner.class)
+public class OutputCacheFilterTest {
+
+    private static final String KEY = "key";
+    private static final byte[] BODY = "<h2>Hello World!</h2>".getBytes();
+
+    @Mock private ServletContext servletContext;
+    @Mock private Environment environment;
+    @Mock private HttpServletRequest req;
+    @Mock private HttpServletResponse res;
+
+    private final Map<String,Object> attributes = new HashMap<>();
+    private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+    private final OutputCacheFilter filter = new OutputCacheFilter();
+    private CachePolicy cachePolicy;
+
+    @Before
+    public void setUp() throws IOException {
+
+        when(servletContext.getResourcePaths("/WEB-INF/soffit/"))
+                .thenReturn(Collections.singleton("/WEB-INF/soffit/hello/"));
+        when(servletContext.getResourcePaths("/WEB-INF/soffit/hello/"))
+                .thenReturn(Collections.singleton("/WEB-INF/soffit/hello/view.jsp"));
+        when(environment.getProperty("soffit.hello.cache.scope")).thenReturn("public");
+        when(environment.getProperty("soffit.hello.cache.max-age")).thenReturn("300");
+        cachePolicy = new CachePolicyRegistry(new ViewIndex(servletContext, "/WEB-INF/soffit/"), environment)
+                .getCachePolicy("hello", "view", "normal");
+
+        when(req.getMethod()).thenReturn("GET");
+        when(req.getHeader(Headers.PORTAL_REQUEST.getName())).thenReturn("token");
+        when(req.getAttribute(anyString())).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                return attributes.get(invocation.getArguments()[0]);
+            }
+        });
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                attributes.put((String) invocation.getArguments()[0], invocation.getArguments()[1]);
+                return null;
+            }
+        }).when(req).setAttribute(anyString(), any());
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                attributes.remove(invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(req).removeAttribute(anyString());
+        when(res.getOutputStream()).thenReturn(new ServletOutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                written.write(b);
+            }
+        });
+
+        ReflectionTestUtils.setField(filter, "outputCacheSize", 10);
+        filter.init();
+
+    }
+
+    @After
+    public void tearDown() {
+        filter.destroy();
+    }
+
+    @Test
+    public void cachedOutputIsServedWithItsAge() throws Exception {
+
+        // Rendered
+        filter.doFilter(req, res, new FilterChain() {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response) throws IOException, ServletException {
+                assertFalse(OutputCacheFilter.writeCachedOutput(req, (HttpServletResponse) response, KEY));
+                CacheDirectives.create(cachePolicy, req);
+                OutputCacheFilter.cacheOutput(req, KEY);
+                response.getOutputStream().write(BODY);
+            }
+        });
+        assertArrayEquals(BODY, written.toByteArray());
+
+        // Replayed
+        written.reset();
+        attributes.clear();
+        filter.doFilter(req, res, new FilterChain() {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response) throws IOException, ServletException {
+                assertTrue(OutputCacheFilter.writeCachedOutput(req, (HttpServletResponse) response, KEY));
+            }
+        });
+        assertArrayEquals(BODY, written.toByteArray());
+        verify(res).setHeader(Headers.AGE.getName(), "0");
+
+    }
+
+    @Test
+    public void filtersShareOneBuffer() throws Exception {
+
+        final ConditionalRequestFilter conditionalRequestFilter = new ConditionalRequestFilter();
+        final FilterChain renderChain = new FilterChain() {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response) throws IOException, ServletException {
+                assertEquals(BufferingResponseWrapper.get(req), response);
+                if (!OutputCacheFilter.writeCachedOutput(req, (HttpServletResponse) response, KEY)) {
+                    CacheDirectives.create(cachePolicy, req);
+                    OutputCacheFilter.cacheOutput(req, KEY);
+                    response.getOutputStream().write(BODY);
+                }
+            }
+        };
+        final FilterChain outputCacheChain = new FilterChain() {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response) throws IOException, ServletException {
+                filter.doFilter(request, response, renderChain);
+            }
+        };
+
+        // Rendered, then replayed
+        for (int i=0; i < 2; i++) {
+            written.reset();
+            attributes.clear();
+            conditionalRequestFilter.doFilter(req, res, outputCacheChain);
+            assertArrayEquals(BODY, written.toByteArray());
+        }
+        verify(res, times(2)).setHeader(eq(Headers.ETAG.getName()), anyString());
+
+    }
+
+}
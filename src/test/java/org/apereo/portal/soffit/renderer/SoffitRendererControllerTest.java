@@ -0,0 +1,150 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apereo.portal.soffit.renderer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apereo.portal.soffit.Headers;
+import org.apereo.portal.soffit.model.v1_0.Bearer;
+import org.apereo.portal.soffit.model.v1_0.PortalRequest;
+import org.apereo.portal.soffit.service.BearerService;
+import org.apereo.portal.soffit.service.DefinitionService;
+import org.apereo.portal.soffit.service.PortalRequestService;
+import org.apereo.portal.soffit.service.PreferencesService;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+import org.springframework.core.env.Environment;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.ModelAndView;
+
+/**
+ * Model attributes of the renderer, including requests to soffits that leave
+ * model objects out with the <code>requiredHeaders</code> preference.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class SoffitRendererControllerTest {
+
+    @Mock private Environment environment;
+    @Mock private PortalRequestService portalRequestService;
+    @Mock private BearerService bearerService;
+    @Mock private PreferencesService preferencesService;
+    @Mock private DefinitionService definitionService;
+    @Mock private ServletContext servletContext;
+    @Mock private HttpServletRequest req;
+    @Mock private HttpServletResponse res;
+
+    @InjectMocks
+    private SoffitRendererController controller;
+
+    @Before
+    public void setUp() {
+        when(servletContext.getResourcePaths("/WEB-INF/soffit/"))
+                .thenReturn(Collections.singleton("/WEB-INF/soffit/hello/"));
+        when(servletContext.getResourcePaths("/WEB-INF/soffit/hello/"))
+                .thenReturn(Collections.singleton("/WEB-INF/soffit/hello/view.jsp"));
+        ReflectionTestUtils.setField(controller, "viewsLocation", "/WEB-INF/soffit/");
+        controller.setServletContext(servletContext);
+        controller.init();
+
+        // Request attributes
+        final Map<String,Object> attributes = new HashMap<>();
+        when(req.getAttribute(anyString())).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                return attributes.get(invocation.getArguments()[0]);
+            }
+        });
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                attributes.put((String) invocation.getArguments()[0], invocation.getArguments()[1]);
+                return null;
+            }
+        }).when(req).setAttribute(anyString(), any());
+    }
+
+    @Test
+    public void omittedModelObjectsAreNull() {
+        assertNull(controller.getBearer(req));
+        assertNull(controller.getPreferences(req));
+        assertNull(controller.getDefinition(req));
+    }
+
+    @Test
+    public void tokensAreParsedOncePerRequest() {
+        when(req.getHeader(Headers.AUTHORIZATION.getName())).thenReturn(Headers.BEARER_TOKEN_PREFIX + "token");
+        when(bearerService.parseBearerToken("token")).thenReturn(new Bearer("token", "student",
+                Collections.<String,List<String>>emptyMap(), Arrays.asList("Everyone")));
+
+        assertEquals("student", controller.getBearer(req).getUsername());
+        assertEquals("student", controller.getBearer(req).getUsername());
+        verify(bearerService, times(1)).parseBearerToken("token");
+    }
+
+    @Test
+    public void privateOutputCacheKeyDoesNotParseTokens() throws Exception {
+        when(environment.getProperty("soffit.hello.cache.scope")).thenReturn("private");
+        when(environment.getProperty("soffit.hello.cache.max-age")).thenReturn("60");
+        controller.init();
+        when(req.getHeader(Headers.AUTHORIZATION.getName())).thenReturn(Headers.BEARER_TOKEN_PREFIX + "token");
+        when(req.getHeader(Headers.PREFERECES.getName())).thenReturn("preferences");
+        when(req.getHeader(Headers.DEFINITION.getName())).thenReturn("definition");
+
+        assertEquals("/WEB-INF/soffit/hello/view.jsp", controller.render(req, res, "hello").getViewName());
+        verify(bearerService, never()).parseBearerToken(anyString());
+        verify(preferencesService, never()).parsePreferences(anyString());
+        verify(definitionService, never()).parseDefinition(anyString());
+    }
+
+    @Test
+    public void omittedPortalRequestRendersTheDefaultView() throws Exception {
+        final ModelAndView mav = controller.render(req, res, "hello");
+        assertEquals("/WEB-INF/soffit/hello/view.jsp", mav.getViewName());
+        final PortalRequest portalRequest = (PortalRequest) mav.getModel().get("portalRequest");
+        assertTrue(portalRequest.getParameters().isEmpty());
+        verify(portalRequestService, never()).parsePortalRequest(anyString());
+    }
+
+}
@@ -0,0 +1,156 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apereo.portal.soffit.service;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apereo.portal.soffit.model.v1_0.Bearer;
+import org.apereo.portal.soffit.model.v1_0.Preferences;
+import org.junit.After;
+import org.junit.Test;
+
+import io.jsonwebtoken.MalformedJwtException;
+
+public class BearerServiceTest {
+
+    private BearerService bearerService;
+
+    @After
+    public void tearDown() {
+        if (bearerService != null) {
+            bearerService.destroy();
+        }
+    }
+
+    @Test
+    public void streamingMatchesClaims() {
+        bearerService = JwtServices.init(new BearerService());
+        assertStreamingMatchesClaims(createBearer());
+    }
+
+    @Test
+    public void streamingMatchesClaimsWhenCompressed() {
+        bearerService = JwtServices.init(new BearerService(),
+                AbstractJwtService.DEFAULT_ENCRYPTION_ALGORITHM, AbstractJwtService.COMPRESSION_DEFLATE);
+        assertStreamingMatchesClaims(createBearer());
+    }
+
+    @Test
+    public void streamingMatchesClaimsWhenEmpty() {
+        bearerService = JwtServices.init(new BearerService());
+        assertStreamingMatchesClaims(bearerService.createBearer("student",
+                Collections.<String,List<String>>emptyMap(), Collections.<String>emptyList(), createExpiration()));
+    }
+
+    @Test
+    public void encoderMatchesClaims() {
+        bearerService = JwtServices.init(new BearerService());
+        assertEncoderMatchesClaims(createAttributes(), Arrays.asList("Everyone", "Students"));
+    }
+
+    @Test
+    public void encoderMatchesClaimsWhenCompressed() {
+        bearerService = JwtServices.init(new BearerService(),
+                AbstractJwtService.DEFAULT_ENCRYPTION_ALGORITHM, AbstractJwtService.COMPRESSION_DEFLATE);
+        assertEncoderMatchesClaims(createAttributes(), Arrays.asList("Everyone", "Students"));
+    }
+
+    @Test
+    public void encoderMatchesClaimsWhenEmpty() {
+        bearerService = JwtServices.init(new BearerService());
+        assertEncoderMatchesClaims(Collections.<String,List<String>>emptyMap(), Collections.<String>emptyList());
+    }
+
+    @Test(expected=SecurityException.class)
+    public void rejectsExpiredTokens() {
+        bearerService = JwtServices.init(new BearerService());
+        final Bearer bearer = bearerService.createBearer("student", Collections.<String,List<String>>emptyMap(),
+                Collections.<String>emptyList(), new Date(System.currentTimeMillis() - 1000L));
+        bearerService.parseBearerToken(bearer.getEncryptedToken());
+    }
+
+    @Test(expected=RuntimeException.class)
+    public void rejectsOtherModelObjects() {
+        bearerService = JwtServices.init(new BearerService());
+        final PreferencesService preferencesService = JwtServices.init(new PreferencesService());
+        try {
+            final Preferences preferences = preferencesService.createPreferences(
+                    Collections.singletonMap("color", Arrays.asList("blue")), "student", createExpiration());
+            bearerService.parseBearerToken(preferences.getEncryptedToken());
+        } finally {
+            preferencesService.destroy();
+        }
+    }
+
+    @Test(expected=MalformedJwtException.class)
+    public void rejectsUnsignedTokens() {
+        bearerService = JwtServices.init(new BearerService());
+        bearerService.parseBearerToken(new JasyptTokenCipher(JwtServices.ENCRYPTION_PASSWORD, 1).encrypt("not.a-jwt"));
+    }
+
+    /*
+     * Implementation
+     */
+
+    private Bearer createBearer() {
+        return bearerService.createBearer("student", createAttributes(),
+                Arrays.asList("Everyone", "Students"), createExpiration());
+    }
+
+    private Map<String,List<String>> createAttributes() {
+        final Map<String,List<String>> rslt = new HashMap<>();
+        rslt.put("displayName", Arrays.asList("Amy Student"));
+        rslt.put("mail", Arrays.asList("amy@example.edu", "amy.student@example.edu"));
+        rslt.put("eduPersonAffiliation", Collections.<String>emptyList());
+        return rslt;
+    }
+
+    private void assertStreamingMatchesClaims(Bearer bearer) {
+        final String token = bearer.getEncryptedToken();
+        final Bearer fromClaims = bearerService.toBearer(token,
+                bearerService.parseEncrypteToken(token, Bearer.class).getBody());
+        final Bearer streamed = bearerService.parseBearerToken(token);
+        assertEquals(fromClaims, streamed);
+        assertEquals(bearer.getUsername(), streamed.getUsername());
+        assertEquals(bearer.getGroups(), streamed.getGroups());
+    }
+
+    private void assertEncoderMatchesClaims(Map<String,List<String>> attributes, List<String> groups) {
+        final Date expires = createExpiration();
+        final String streamed = bearerService.createBearer("student", attributes, groups, expires).getEncryptedToken();
+        final String fromClaims = bearerService.generateEncryptedToken(
+                bearerService.createBearerClaims("student", attributes, groups, expires));
+        assertEquals(JwtServices.stableClaims(bearerService, fromClaims, Bearer.class),
+                JwtServices.stableClaims(bearerService, streamed, Bearer.class));
+    }
+
+    private Date createExpiration() {
+        return new Date(System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(5L));
+    }
+
+}
@@ -0,0 +1,93 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apereo.portal.soffit.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ExpiringCacheTest {
+
+    private static final long FUTURE = System.currentTimeMillis() + 60000L;
+
+    @Test
+    public void putAndGet() {
+        final ExpiringCache<String,String> cache = new ExpiringCache<>(10);
+        cache.put("a", "1", FUTURE);
+        assertEquals("1", cache.get("a"));
+        assertNull(cache.get("b"));
+        cache.remove("a");
+        assertNull(cache.get("a"));
+    }
+
+    @Test
+    public void expiredEntriesAreNotReturned() {
+        final ExpiringCache<String,String> cache = new ExpiringCache<>(10);
+        cache.put("a", "1", System.currentTimeMillis() - 1L);
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void expiredEntriesAreEvictedFirst() {
+        final ExpiringCache<String,String> cache = new ExpiringCache<>(3);
+        cache.put("a", "1", FUTURE);
+        cache.put("expired", "2", System.currentTimeMillis() - 1L);
+        cache.put("b", "3", FUTURE);
+        cache.put("c", "4", FUTURE);
+        assertEquals(3, cache.size());
+        assertEquals("1", cache.get("a"));
+        assertEquals("3", cache.get("b"));
+        assertEquals("4", cache.get("c"));
+    }
+
+    @Test
+    public void leastRecentlyUsedEntriesAreEvicted() {
+        final ExpiringCache<String,String> cache = new ExpiringCache<>(3);
+        cache.put("a", "1", FUTURE);
+        cache.put("b", "2", FUTURE);
+        cache.put("c", "3", FUTURE);
+        assertEquals("1", cache.get("a"));
+        cache.put("d", "4", FUTURE);
+        assertEquals(3, cache.size());
+        assertNull(cache.get("b"));
+        assertEquals("1", cache.get("a"));
+        assertEquals("3", cache.get("c"));
+        assertEquals("4", cache.get("d"));
+    }
+
+    @Test
+    public void sizeIsBounded() {
+        final ExpiringCache<Integer,Integer> cache = new ExpiringCache<>(5);
+        for (int i = 0; i < 100; i++) {
+            cache.put(i, i, FUTURE);
+            assertTrue(cache.size() <= 5);
+        }
+        assertEquals(Integer.valueOf(99), cache.get(99));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void rejectsInvalidMaxSize() {
+        new ExpiringCache<String,String>(0);
+    }
+
+}
@@ -0,0 +1,68 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apereo.portal.soffit.service;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apereo.portal.soffit.ITokenizable;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Configures JWT services as Spring would, with the default values of their
+ * properties (except for the keys).
+ */
+final class JwtServices {
+
+    static final String SIGNATURE_KEY = "c2VjcmV0a2V5c2VjcmV0a2V5";
+    static final String ENCRYPTION_PASSWORD = "secret";
+
+    private JwtServices() {}
+
+    public static <T extends AbstractJwtService> T init(T service) {
+        return init(service, AbstractJwtService.DEFAULT_ENCRYPTION_ALGORITHM, AbstractJwtService.COMPRESSION_NONE);
+    }
+
+    public static <T extends AbstractJwtService> T init(T service, String encryptionAlgorithm, String compression) {
+        ReflectionTestUtils.setField(service, "signatureKey", SIGNATURE_KEY);
+        ReflectionTestUtils.setField(service, "encryptionPassword", ENCRYPTION_PASSWORD);
+        ReflectionTestUtils.setField(service, "encryptionAlgorithm", encryptionAlgorithm);
+        ReflectionTestUtils.setField(service, "compression", compression);
+        ReflectionTestUtils.setField(service, "encryptorPoolSize", 0);
+        ReflectionTestUtils.setField(service, "tokenCacheSize", 1000);
+        ReflectionTestUtils.setField(service, "tokenExpirationBucketSeconds", 300L);
+        ReflectionTestUtils.setField(service, "parsedTokenCacheSize", 1000);
+        service.init();
+        return service;
+    }
+
+    /**
+     * @return The claims of the token (parsed by jjwt) that don't vary
+     * between tokens issued for the same content
+     */
+    public static Map<String,Object> stableClaims(AbstractJwtService service, String token,
+            Class<? extends ITokenizable> clazz) {
+        final Map<String,Object> rslt = new HashMap<>(service.parseEncrypteToken(token, clazz).getBody());
+        rslt.remove(JwtClaims.ISSUED_AT.getName());
+        rslt.remove(JwtClaims.JWT_ID.getName());
+        return rslt;
+    }
+
+}
@@ -0,0 +1,101 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apereo.portal.soffit.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apereo.portal.soffit.model.v1_0.PortalRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PortalRequestServiceTest {
+
+    private PortalRequestService portalRequestService;
+
+    @Before
+    public void setUp() {
+        portalRequestService = JwtServices.init(new PortalRequestService());
+    }
+
+    @After
+    public void tearDown() {
+        portalRequestService.destroy();
+    }
+
+    @Test
+    public void roundTrip() {
+        final PortalRequest portalRequest = createPortalRequest();
+        final PortalRequest parsed = portalRequestService.parsePortalRequest(portalRequest.getEncryptedToken());
+        assertEquals(portalRequest.getProperties(), parsed.getProperties());
+        assertEquals(portalRequest.getAttributes(), parsed.getAttributes());
+        assertEquals(portalRequest.getParameters(), parsed.getParameters());
+    }
+
+    @Test
+    public void parsedTokensAreNotRetained() {
+        final String token = createPortalRequest().getEncryptedToken();
+        assertNotSame(portalRequestService.parsePortalRequest(token), portalRequestService.parsePortalRequest(token));
+    }
+
+    @Test
+    public void acceptsTokensFromEitherCipher() {
+        final PortalRequestService aesGcmService = JwtServices.init(new PortalRequestService(),
+                AesGcmTokenCipher.NAME, AbstractJwtService.COMPRESSION_NONE);
+        try {
+            final PortalRequest fromJasypt = createPortalRequest();
+            assertEquals(fromJasypt.getProperties(),
+                    aesGcmService.parsePortalRequest(fromJasypt.getEncryptedToken()).getProperties());
+            final PortalRequest fromAesGcm = aesGcmService.createPortalRequest(fromJasypt.getProperties(),
+                    fromJasypt.getAttributes(), fromJasypt.getParameters(), "student", createExpiration());
+            assertTrue(AesGcmTokenCipher.isAesGcmToken(fromAesGcm.getEncryptedToken()));
+            assertEquals(fromJasypt.getProperties(),
+                    portalRequestService.parsePortalRequest(fromAesGcm.getEncryptedToken()).getProperties());
+        } finally {
+            aesGcmService.destroy();
+        }
+    }
+
+    /*
+     * Implementation
+     */
+
+    private PortalRequest createPortalRequest() {
+        final Map<String,List<String>> attributes = Collections.singletonMap(
+                PortalRequest.Attributes.MODE.getName(), Arrays.asList("view"));
+        final Map<String,List<String>> parameters = Collections.singletonMap("page", Arrays.asList("2"));
+        return portalRequestService.createPortalRequest(Collections.singletonMap("User-Agent", "JUnit"),
+                attributes, parameters, "student", createExpiration());
+    }
+
+    private Date createExpiration() {
+        return new Date(System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(5L));
+    }
+
+}
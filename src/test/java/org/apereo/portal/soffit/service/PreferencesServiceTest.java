@@ -0,0 +1,136 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apereo.portal.soffit.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apereo.portal.soffit.model.v1_0.Preferences;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PreferencesServiceTest {
+
+    private static final long BUCKET_MILLIS = TimeUnit.SECONDS.toMillis(300L);
+
+    private static final Map<String,List<String>> PREFERENCES_MAP =
+            Collections.singletonMap("color", Arrays.asList("blue"));
+
+    private PreferencesService preferencesService;
+
+    /**
+     * An expiration well inside an expiration bucket, so tokens created
+     * moments apart fall in the same one.
+     */
+    private Date expires;
+
+    @Before
+    public void setUp() {
+        preferencesService = JwtServices.init(new PreferencesService());
+        final long bucketStart = (System.currentTimeMillis() / BUCKET_MILLIS) * BUCKET_MILLIS;
+        expires = new Date(bucketStart + 2L * BUCKET_MILLIS + TimeUnit.SECONDS.toMillis(10L));
+    }
+
+    @After
+    public void tearDown() {
+        preferencesService.destroy();
+    }
+
+    @Test
+    public void roundTrip() {
+        final Preferences preferences = preferencesService.createPreferences(PREFERENCES_MAP, "student", expires);
+        assertEquals(PREFERENCES_MAP, preferencesService.parsePreferences(preferences.getEncryptedToken()).getPreferencesMap());
+    }
+
+    @Test
+    public void streamingMatchesClaims() {
+        final String token = createToken(PREFERENCES_MAP, "student", expires);
+        final Preferences fromClaims = preferencesService.toPreferences(token,
+                preferencesService.parseEncrypteToken(token, Preferences.class).getBody());
+        assertEquals(fromClaims, preferencesService.parsePreferences(token));
+    }
+
+    @Test
+    public void encoderMatchesClaims() {
+        final Map<String,List<String>> preferencesMap = new HashMap<>();
+        preferencesMap.put("color", Arrays.asList("blue"));
+        preferencesMap.put("sizes", Arrays.asList("small", "large"));
+        preferencesMap.put("empty", Collections.<String>emptyList());
+        final String streamed = createToken(preferencesMap, "student", expires);
+        final String fromClaims = preferencesService.generateEncryptedToken(
+                preferencesService.createPreferencesClaims(preferencesMap, "student", expires));
+        assertEquals(JwtServices.stableClaims(preferencesService, fromClaims, Preferences.class),
+                JwtServices.stableClaims(preferencesService, streamed, Preferences.class));
+    }
+
+    @Test
+    public void sameContentReusesToken() {
+        assertEquals(createToken(PREFERENCES_MAP, "student", expires),
+                createToken(PREFERENCES_MAP, "student", new Date(expires.getTime() + 1000L)));
+    }
+
+    @Test
+    public void differentContentGetsNewToken() {
+        final Map<String,List<String>> other = Collections.singletonMap("color", Arrays.asList("green"));
+        assertNotEquals(createToken(PREFERENCES_MAP, "student", expires), createToken(other, "student", expires));
+    }
+
+    @Test
+    public void differentUserGetsNewToken() {
+        assertNotEquals(createToken(PREFERENCES_MAP, "student", expires), createToken(PREFERENCES_MAP, "staff", expires));
+    }
+
+    @Test
+    public void differentBucketGetsNewToken() {
+        assertNotEquals(createToken(PREFERENCES_MAP, "student", expires),
+                createToken(PREFERENCES_MAP, "student", new Date(expires.getTime() + BUCKET_MILLIS)));
+    }
+
+    @Test
+    public void expirationIsRoundedDownToTheBucket() {
+        final String token = createToken(PREFERENCES_MAP, "student", expires);
+        final Date parsed = preferencesService.parseEncrypteToken(token, Preferences.class).getBody().getExpiration();
+        assertEquals((expires.getTime() / BUCKET_MILLIS) * BUCKET_MILLIS, parsed.getTime());
+    }
+
+    @Test
+    public void tokensCloseToExpiringAreNotReused() {
+        final Date soon = new Date(System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30L));
+        assertNotEquals(createToken(PREFERENCES_MAP, "student", soon), createToken(PREFERENCES_MAP, "student", soon));
+    }
+
+    /*
+     * Implementation
+     */
+
+    private String createToken(Map<String,List<String>> preferencesMap, String username, Date expires) {
+        return preferencesService.createPreferences(preferencesMap, username, expires).getEncryptedToken();
+    }
+
+}